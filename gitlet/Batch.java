@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a gitlet batch: {@code gitlet batch} runs the commands read from standard input, one
+ * per line, in one process and one {@link Transaction}. Operands are separated by spaces and may be
+ * quoted with ' or "; blank lines and lines starting with # are skipped, and a {@code checkpoint}
+ * line writes the refs and index changed so far. The remaining changes are written after the last
+ * command. If a command fails, the batch stops and the refs and index are left as they were at the
+ * last checkpoint.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Batch {
+
+    /**
+     * Runs the commands on standard input.
+     */
+    public static void run() {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        int lineNumber = 0;
+        boolean endOfInput = false;
+        Transaction.begin();
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String[] args = split(line);
+                if (args.length == 0 || args[0].startsWith("#")) {
+                    continue;
+                }
+                switch (args[0]) {
+                    case "checkpoint":
+                        Transaction.commit();
+                        break;
+                    case "batch":
+                    case "serve":
+                    case "watch":
+                    case "init":
+                        Repository.errorMessage("Cannot run that command in a batch.");
+                        break;
+                    default:
+                        Main.run(args);
+                        break;
+                }
+            }
+            endOfInput = true;
+            Transaction.commit();
+        } catch (GitletException e) {
+            Transaction.rollback();
+            System.err.println(e.getMessage());
+            Repository.errorMessage("Batch stopped at " + (endOfInput ? "the end of input" : "line " + lineNumber)
+                    + "; changes since the last checkpoint were not saved.");
+        } catch (IOException e) {
+            Transaction.rollback();
+            throw Utils.error("Error reading commands: %s", e.getMessage());
+        } finally {
+            Transaction.end();
+        }
+    }
+
+    /**
+     * Splits a command line into its operands.
+     *
+     * @param line The line.
+     * @return The operands, without their quotes.
+     */
+    private static String[] split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && quote == '"' && i + 1 < line.length()) {
+                    arg.append(line.charAt(++i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    args.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    arg.append(line.charAt(++i));
+                } else {
+                    arg.append(c);
+                }
+            }
+        }
+        if (quote != 0) {
+            Repository.errorMessage("Unterminated quote.");
+        }
+        if (arg != null) {
+            args.add(arg.toString());
+        }
+        return args.toArray(new String[0]);
+    }
+}
@@ -1,6 +1,21 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 public class Blob {
 
@@ -12,44 +27,220 @@ public class Blob {
      * If a blob with the same content already exists, it is not overwritten.
      *
      * @param files The files to be saved as blobs.
+     * @return Map from each file to the SHA-1 name of its blob.
      */
-    public static void saveBlobs(File[] files) {
+    public static Map<File, String> saveBlobs(File[] files) {
         if (files == null) {
-            return;
+            return new HashMap<>();
         }
+        return saveBlobs(Arrays.asList(files));
+    }
 
+    /**
+     * Saves the contents of the given files as blobs, as {@link #saveBlobs(File[])}. The files are
+     * hashed, compressed and written in parallel on the common fork/join pool, so no more files are
+     * in flight than there are workers, each streamed through a fixed-size buffer. A blob that is
+     * already stored, or that another of the files is already writing, is skipped; a file that
+     * hashed to the same blob as another one waits for it, and stores its own contents if the other
+     * file turned out to hold something else by the time it was written.
+     * <p>
+     * A file is hashed again as it is compressed, and its blob is named after what was stored: a
+     * file changed after it was first hashed gets the blob of its new contents rather than an
+     * object whose name does not match them.
+     *
+     * @param files The files to be saved as blobs.
+     * @return Map from each file to the SHA-1 name of its blob.
+     */
+    public static Map<File, String> saveBlobs(List<File> files) {
+        Map<File, String> ids = new ConcurrentHashMap<>();
+        if (files.isEmpty()) {
+            return ids;
+        }
         if (!BLOB_DIRECTORY.exists()) {
             BLOB_DIRECTORY.mkdirs();
         }
+        // blob name -> what the first file hashed to it was stored as
+        Map<String, CompletableFuture<String>> claimed = new ConcurrentHashMap<>();
+        forEach(files, file -> {
+            String id = HashService.blobId(file);
+            CompletableFuture<String> mine = new CompletableFuture<>();
+            CompletableFuture<String> first = claimed.putIfAbsent(id, mine);
+            if (first != null && id.equals(first.join())) {
+                ids.put(file, id);
+                return;
+            }
+            String stored = null;
+            try {
+                stored = saveBlob(file, id);
+            } finally {
+                // null if it failed; the files waiting for it then store their own contents
+                mine.complete(stored);
+            }
+            ids.put(file, stored);
+        });
+        return ids;
+    }
+
+    /**
+     * Saves a single file as a blob in the blob directory, unless the blob it was hashed to exists.
+     *
+     * @param file The file to be saved as a blob.
+     * @param id   The SHA-1 name the file was hashed to.
+     * @return The SHA-1 name of the stored contents.
+     */
+    private static String saveBlob(File file, String id) {
+        if (ObjectStore.objectFile(BLOB_DIRECTORY, id).exists() || PackFile.contains(id)) {
+            return id;
+        }
+        MessageDigest md = HashService.newDigest();
+        File tmp = ObjectStore.writeTemporary(BLOB_DIRECTORY, ObjectStore.BLOB, file, md);
+        String stored = HashService.blobId(md, file);
+        File blobFile = ObjectStore.objectFile(BLOB_DIRECTORY, stored);
+        if (!stored.equals(id) && (blobFile.exists() || PackFile.contains(stored))) {
+            tmp.delete();
+        } else {
+            ObjectStore.install(tmp, blobFile);
+        }
+        return stored;
+    }
+
+    /**
+     * Saves contents that are already in memory as a blob, unless a blob with that name exists.
+     *
+     * @param contents The contents of the blob.
+     * @param shaName  The SHA-1 name of the blob.
+     */
+    public static void saveBlob(byte[] contents, String shaName) {
+        File blobFile = ObjectStore.objectFile(BLOB_DIRECTORY, shaName);
+        if (!blobFile.exists() && !PackFile.contains(shaName)) {
+            ObjectStore.write(blobFile, ObjectStore.BLOB, contents);
+        }
+    }
 
-        for (File file : files) {
-            String fileName = Repository.toString(file);
-            fileName=Utils.sha1(fileName);
-            saveBlob(file, fileName);
+    /**
+     * Reads the contents of a blob by its SHA-1 name, whether it is stored as a loose file
+     * or inside a pack.
+     *
+     * @param shaName The SHA-1 name of the blob.
+     * @return The contents of the blob, or null if it does not exist. It may be shared through the
+     * {@link ObjectCache}, so it must not be changed.
+     */
+    public static byte[] readContents(String shaName) {
+        byte[] contents = ObjectCache.get(ObjectStore.BLOB, shaName);
+        if (contents != null) {
+            return contents;
+        }
+        File blobFile = ObjectStore.objectFile(BLOB_DIRECTORY, shaName);
+        contents = blobFile.exists() ? ObjectStore.read(blobFile) : PackFile.read(shaName);
+        if (contents != null) {
+            ObjectCache.put(ObjectStore.BLOB, shaName, contents, contents.length);
         }
+        return contents;
     }
 
     /**
-     * Saves a single file as a blob in the blob directory.
+     * Opens the contents of a blob as a stream. Loose blobs are inflated as they are read; a packed
+     * blob, which may be stored as a delta, is read whole first.
      *
-     * @param file     The file to be saved as a blob.
-     * @param fileName The name of the file.
+     * @param shaName The SHA-1 name of the blob.
+     * @return The contents, to be closed by the caller.
      */
-    private static void saveBlob(File file, String fileName) {
-        File blobFile = new File(BLOB_DIRECTORY, fileName);
-        if (!blobFile.exists()) {
-            Utils.writeContents(blobFile, Utils.readContentsAsString(file));
+    public static InputStream open(String shaName) {
+        File blobFile = ObjectStore.objectFile(BLOB_DIRECTORY, shaName);
+        if (blobFile.exists()) {
+            try {
+                return ObjectStore.open(blobFile);
+            } catch (IOException e) {
+                throw Utils.error("Error reading object %s: %s", shaName, e.getMessage());
+            }
         }
+        byte[] contents = PackFile.read(shaName);
+        if (contents == null) {
+            throw Utils.error("Missing blob %s.", shaName);
+        }
+        return new ByteArrayInputStream(contents);
     }
 
     /**
-     * Retrieves a blob file by its SHA-1 name.
+     * Writes the contents of a blob into a working file without loading it into memory: loose blobs
+     * are inflated through a fixed-size buffer, and blobs stored whole in a pack are copied by the
+     * kernel. Working files are never hard links to objects, since objects are compressed and must
+     * not change when a working file is edited.
      *
      * @param shaName The SHA-1 name of the blob.
-     * @return The blob file, or null if it does not exist.
+     * @param dest    The file to create or overwrite.
+     */
+    public static void writeTo(String shaName, File dest) {
+        File blobFile = ObjectStore.objectFile(BLOB_DIRECTORY, shaName);
+        if (blobFile.exists()) {
+            ObjectStore.copyTo(blobFile, dest);
+        } else if (!PackFile.writeTo(shaName, dest)) {
+            throw Utils.error("Missing blob %s.", shaName);
+        }
+    }
+
+    /**
+     * Writes the contents of blobs into working files, as {@link #writeTo(String, File)}, in parallel
+     * on the common fork/join pool, creating missing parent directories.
+     *
+     * @param files Map from the file to create or overwrite to the SHA-1 name of its blob.
+     */
+    public static void writeAll(Map<File, String> files) {
+        forEach(new ArrayList<>(files.entrySet()), file -> {
+            file.getKey().getParentFile().mkdirs();
+            writeTo(file.getValue(), file.getKey());
+        });
+    }
+
+    /**
+     * Runs an action on every item of a list in parallel on the common fork/join pool, so no more
+     * items are in flight than there are workers.
      */
-    public static File getFile(String shaName) {
-        File blobFile = new File(BLOB_DIRECTORY, shaName);
-        return blobFile.exists() ? blobFile : null;
+    private static <T> void forEach(List<T> items, Consumer<T> action) {
+        if (items.isEmpty()) {
+            return;
+        }
+        EachTask<T> task = new EachTask<>(items, 0, items.size(), action, new AtomicReference<>());
+        ForkJoinPool.commonPool().invoke(task);
+        // rethrown here: an exception crossing threads loses its message
+        if (task.failure.get() != null) {
+            throw task.failure.get();
+        }
+    }
+
+    /** Runs an action on items FROM to TO of a list, forking until each task has one item. */
+    private static class EachTask<T> extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<T> items;
+        private final int from;
+        private final int to;
+        private final Consumer<T> action;
+        private final AtomicReference<GitletException> failure;
+
+        EachTask(List<T> items, int from, int to, Consumer<T> action, AtomicReference<GitletException> failure) {
+            this.items = items;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+            this.failure = failure;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new EachTask<>(items, from, mid, action, failure), new EachTask<>(items, mid, to, action, failure));
+                return;
+            }
+            if (failure.get() != null) {
+                return;
+            }
+            try {
+                action.accept(items.get(from));
+            } catch (GitletException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,7 +4,6 @@ package gitlet;
 import java.io.File;
 import java.util.*;
 
-import static gitlet.Utils.readContentsAsString;
 /**
  * Represents a gitlet Branch object.
  *  does at a high level.
@@ -17,16 +16,16 @@ public class Branches {
 
 
     public static void makeNewBranch(String branchName) {
-        File file = new File(BRANCH, branchName);
-        Utils.writeContents(file, Repository.getHead());
+        Refs.setBranch(branchName, null, Repository.getHead());
     }
 
     public static void loadBranch(String branchName) {
 
-        File file = new File(BRANCH, branchName);
-        String commitName = readContentsAsString(file);
+        String commitName = getBranchHead(branchName);
         Commit.loadCommitFiles(commitName);
+        // HEAD is the commit of the current branch, so it moves with it
         updateCurrentBranch(branchName);
+        StagingArea.clear();
     }
 
     /**
@@ -38,36 +37,39 @@ public class Branches {
      * 5-if the file that was not present at the split point and are present only in the given branch it checked out and staged
      * 6-if the file present at the split point unmodified it the current branch and absent in the given branch should be removed
      * 7-if the file present at the split point unmodified in the given branch and absent in the current branch should remain absent
+     * 8-if the file modified in both current and given in different ways it is merged line by line by {@link TextMerge},
+     * with a conflict only where both changed the same lines, and staged
      */
     public static void mergeBranch(String branchName) {
-        File file = new File(BRANCH, branchName);
-        String branchCommitName = readContentsAsString(file);
+        String branchCommitName = getBranchHead(branchName);
         Commit currentCommit = Commit.getCommitByName(Repository.getHead());
         Commit givenCommit = Commit.getCommitByName(branchCommitName);
         Commit splitCommit = Commit.getLowestCommonAncestor(Repository.getHead(), branchCommitName);
-        if (splitCommit != null && splitCommit.equals(givenCommit)) {
+        if (splitCommit != null && splitCommit.getName().equals(givenCommit.getName())) {
             Repository.errorMessage("Given branch is an ancestor of the current branch.");
         }
-        if (splitCommit != null && splitCommit.equals(currentCommit)) {
+        if (splitCommit != null && splitCommit.getName().equals(currentCommit.getName())) {
             Repository.checkoutBranch(branchName);
             System.out.println("Current branch fast-forwarded.");
             return;
         }
-        Set<String> files = new HashSet<String>();
+        // only files that changed on at least one side since the split point need a decision,
+        // and comparing trees skips every directory that is identical on both sides
+        String splitTree = splitCommit == null ? null : splitCommit.getTree();
+        Map<String, String[]> ours = Tree.diff(splitTree, currentCommit.getTree());
+        Map<String, String[]> theirs = Tree.diff(splitTree, givenCommit.getTree());
+        Set<String> files = new TreeSet<>(ours.keySet());
+        files.addAll(theirs.keySet());
         boolean conflict = false;
-        files.addAll(currentCommit.getTrackByName().keySet());
-        files.addAll(givenCommit.getTrackByName().keySet());
-        files.addAll(splitCommit.getTrackByName().keySet());
         for (String fileName : files) {
-            String current = currentCommit.getTrackByName().get(fileName);
-            String given = givenCommit.getTrackByName().get(fileName);
-            String split = splitCommit.getTrackByName().get(fileName);
+            String split = ours.containsKey(fileName) ? ours.get(fileName)[0] : theirs.get(fileName)[0];
+            String current = ours.containsKey(fileName) ? ours.get(fileName)[1] : split;
+            String given = theirs.containsKey(fileName) ? theirs.get(fileName)[1] : split;
             // 1-if the file modified in the given branch since the split point and not modified in the current modify it and stage it
             if (given != null && split != null && split.equals(current) && !split.equals(given)) {
                 // load the file from given commit and stage it for addition
                 Repository.loadFile(fileName, branchCommitName);
-                File updated = Blob.getFile(splitCommit.getTrackByName().get(fileName));
-                StagingArea.stageForAdd(updated, fileName);
+                StagingArea.stageForAdd(new File(Repository.CWD, fileName), fileName);
             }
             // 2-if the file modified in the current branch since the split point  but not in the given branch  stay as it is.
             else if (split != null && current != null && !split.equals(current) && split.equals(given)) {
@@ -79,91 +81,93 @@ public class Branches {
             } else if (split == null && current == null && given != null) {
                 // load it from given and stage it for addition
                 Repository.loadFile(fileName, branchCommitName);
-                File updated = Blob.getFile(splitCommit.getTrackByName().get(fileName));
-                StagingArea.stageForAdd(updated, fileName);
+                StagingArea.stageForAdd(new File(Repository.CWD, fileName), fileName);
             } else if (split != null && given == null && split.equals(current)) {
                 // remove it from current and stage it for removal
                 Repository.removeFileFromCWD(fileName);
-                StagingArea.stageForRemove(fileName, currentCommit.getTrackByName().get(fileName));
+                StagingArea.stageForRemove(fileName, current);
             } else if (split != null && current == null && split.equals(given)) {
                 // do nothing
             } else if (!Objects.equals(split, current) && !Objects.equals(current, given) && !Objects.equals(split, given)) {
-                // conflict
-                conflict = true;
-                String currentContent = readContentsAsString(Blob.getFile(currentCommit.getTrackByName().get(fileName)));
-                String givenContent = readContentsAsString(Blob.getFile(givenCommit.getTrackByName().get(fileName)));
-                String finalContent = "<<<<<<< HEAD\n" + currentContent + "=======\n" + givenContent + ">>>>>>>\n";
+                // changed on both sides: merged line by line, with a conflict where both changed the same lines
                 File newFile = new File(Repository.CWD, fileName);
-                Utils.writeContents(newFile, finalContent);
+                newFile.getParentFile().mkdirs();
+                conflict |= TextMerge.merge(split, current, given, newFile);
                 StagingArea.stageForAdd(newFile, fileName);
             }
         }
         String commitMessage = "Merged " + branchName + " into " + getCurrentBranch() + ".";
-        Repository.commit(commitMessage);
+        Repository.commit(commitMessage, branchCommitName);
         if (conflict) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
     /**
-     * Updates the reference commit for a specific branch in the repository.
-     * This method writes the provided commit reference (`refCommit`) to a file
-     * named after the branch (`branchName`) in the current working directory (CWD).
+     * Updates the reference commit for a specific branch in the repository, failing if another
+     * process moved the branch since this command read it.
      *
-     * @param branchName The name of the branch to update. This will be used as the filename
-     *                   where the commit reference is stored. Must not be null or empty.
+     * @param branchName The name of the branch to update. Must not be null or empty.
+     * @param oldCommit  The commit the branch pointed to when it was read, or null for a new branch.
      * @param refCommit  The commit reference (e.g., a commit hash) to associate with the branch.
      */
-    public static void updateBranch(String branchName, String refCommit) {
-        File file = new File(BRANCH, branchName);
-        Utils.writeContents(file, refCommit);
+    public static void updateBranch(String branchName, String oldCommit, String refCommit) {
+        Refs.setBranch(branchName, oldCommit, refCommit);
+        if (branchName.equals(currentBranch)) {
+            Repository.head = refCommit;
+        }
     }
 
     /**
-     * Updates the current branch in the repository to the specified branch name.
-     * This method writes the provided branch name (`branchName`) to a file named
-     * "currentBranch" in the branch directory (`BRANCH`).
+     * Returns the commit a branch points to.
      *
-     * @param branchName The name of the branch to set as the current branch. This will be
-     *                   written to the "currentBranch" file. Must not be null or empty.
+     * @param branchName The name of the branch.
+     * @return The name of the commit.
+     */
+    public static String getBranchHead(String branchName) {
+        return Refs.getBranch(branchName);
+    }
+
+    /**
+     * Updates the current branch in the repository to the specified branch name, which also
+     * moves HEAD to the commit of that branch.
+     *
+     * @param branchName The name of the branch to set as the current branch. Must not be null or empty.
      */
     public static void updateCurrentBranch(String branchName) {
-        File file = new File(Repository.GITLET_DIR, "currentBranch");
-        Utils.writeContents(file, branchName);
+        String expected = currentBranch.equals("no") ? Refs.getCurrentBranch() : currentBranch;
+        Refs.setCurrentBranch(expected, branchName);
+        currentBranch = branchName;
+        Repository.head = "no";
     }
 
     /**
      * Retrieves the name of the current branch in the repository.
      * If the current branch is not already cached (i.e., it is set to "no"),
-     * this method reads the branch name from the "currentBranch" file in the
-     * current working directory (CWD) and caches it for future use.
+     * this method reads it from the {@link Refs} and caches it for future use.
      *
-     * @return The name of the current branch. This value is read from the
-     * "currentBranch" file if not already cached.
+     * @return The name of the current branch.
      */
     public static String getCurrentBranch() {
         if (currentBranch.equals("no")) {
-            File file = new File(Repository.GITLET_DIR, "currentBranch");
-            currentBranch = readContentsAsString(file);
+            currentBranch = Refs.getCurrentBranch();
         }
         return currentBranch;
     }
 
     public static void removeBranch(String branchName) {
-        File file = new File(BRANCH, branchName);
-        file.delete();
+        Refs.setBranch(branchName, getBranchHead(branchName), null);
     }
 
     public static boolean branchExists(String branchName) {
-        File file = new File(BRANCH, branchName);
-        return file.exists();
+        return getBranchHead(branchName) != null;
     }
 
+    /**
+     * Returns the names of all branches, sorted, read in one pass over the refs.
+     */
     public static List<String> getBranchFiles() {
-        if (BRANCH.exists()) {
-            return Utils.plainFilenamesIn(BRANCH);
-        }
-        return null;
+        return new ArrayList<>(Refs.branches().keySet());
     }
 
 }
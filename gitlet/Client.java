@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Thin client of the gitlet {@link Server}: sends its arguments to the server of the repository in
+ * the current directory and copies back what the command prints and its exit status. Without a
+ * running server the command runs in this process, as with {@link Main}.
+ * <p>
+ * This client is itself started in a JVM, which costs the startup time the server saves; the
+ * gitlet-client script at the top of the repository speaks the same protocol without one.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, with the same ARGS as {@link Main}. */
+    public static void main(String[] args) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (channel) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            status = copyReply(new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel))));
+        } catch (IOException e) {
+            System.err.println("Lost connection to gitlet server: " + e.getMessage());
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    /** Returns a connection to the server, or null if none is running. */
+    private static SocketChannel connect() {
+        if (!Server.SOCKET_FILE.exists()) {
+            return null;
+        }
+        try {
+            return SocketChannel.open(UnixDomainSocketAddress.of(Server.SOCKET_FILE.toPath()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Copies frames to stdout and stderr up to the exit frame, and returns the exit status. */
+    private static int copyReply(DataInputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (true) {
+            byte stream = in.readByte();
+            if (stream == Server.EXIT) {
+                System.out.flush();
+                return in.readInt();
+            }
+            PrintStream target = stream == Server.STDERR ? System.err : System.out;
+            if (stream == Server.STDERR) {
+                System.out.flush();
+            }
+            int length = in.readInt();
+            while (length > 0) {
+                int n = in.read(buffer, 0, Math.min(length, buffer.length));
+                if (n < 0) {
+                    throw new IOException("unexpected end of reply");
+                }
+                target.write(buffer, 0, n);
+                length -= n;
+            }
+        }
+    }
+}
@@ -1,18 +1,45 @@
 package gitlet;
 
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Represents a gitlet commit object.
  *  does at a high level.
+ * <p>
+ * Commits are stored in a versioned binary encoding:
+ * <pre>
+ *     int magic, byte version, byte parentCount, byte[20] parents[parentCount], long time,
+ *     int messageLength, byte[messageLength] message (UTF-8), byte[20] tree
+ * </pre>
+ * where tree is the root {@link Tree} of the snapshot. Version 1 stored the file map inline instead:
+ * {@code int fileCount, { int nameLength, byte[nameLength] name (UTF-8), byte[20] blob }[fileCount]}.
+ * Everything {@code log}, {@code global-log} and {@code find} need comes before the file map, so
+ * {@link #getCommitHeader(String)} decodes only that much. Commits written by older versions with
+ * Java serialization are still readable.
  *
  * @author Abdelrahman Mostafa
  */
 public class Commit implements Serializable {
+    /**
+     * pinned to the value of the original class so commits written by older versions stay readable
+     */
+    private static final long serialVersionUID = 9089640065644557301L;
+    private static final int FORMAT_MAGIC = 0x47434d54;  // "GCMT"
+    private static final int FORMAT_VERSION = 2;
+    private static final int INLINE_FILES_VERSION = 1;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -36,10 +63,12 @@ public class Commit implements Serializable {
     /**
      * that contains the referencing files.
      */
-    // Map Store Name -> sha
-    private final Map<String, String> trackByName;
-    // Map Store sha -> Name
-    private final Map<String, String> trackBySha;
+    // Map Store Name -> sha, null until loaded from the tree or for a commit read by getCommitHeader
+    private Map<String, String> trackByName;
+    /**
+     * id of the root tree, null for commits written before trees existed until it is computed.
+     */
+    private String tree;
 
     /**
      * initial commit
@@ -49,128 +78,346 @@ public class Commit implements Serializable {
         this.date = new Date(0);
         this.firstParent = null;
         this.secondParent = null;
-        this.trackByName = new TreeMap<>();
-        this.trackBySha = new TreeMap<>();
+        this.trackByName = Collections.emptyMap();
 
     }
 
-    public Commit(String message, String firstParent, String secondParent, Map<String, String> tracked) {
+    public Commit(String message, String firstParent, String secondParent, String tree) {
         if (message == null) {
             Repository.errorMessage("Please enter a commit message.");
         }
         this.message = message;
         this.date = new Date();
         this.firstParent = firstParent;
+        // a second parent equal to the first one adds nothing
+        this.secondParent = Objects.equals(firstParent, secondParent) ? null : secondParent;
+        this.tree = tree;
+    }
+
+    private Commit(String name, String message, Date date, String firstParent, String secondParent,
+                   String tree, Map<String, String> tracked) {
+        this.name = name;
+        this.message = message;
+        this.date = date;
+        this.firstParent = firstParent;
         this.secondParent = secondParent;
-        // tacked sha -> file
-        this.trackBySha = new TreeMap<>();
-        ;
-        this.trackByName = new TreeMap<>();
-        ;
-        for (Map.Entry<String, String> entry : tracked.entrySet()) {
-            trackByName.put(entry.getKey(), entry.getValue());
-            trackBySha.put(entry.getValue(), entry.getKey());
-        }
+        this.tree = tree;
+        this.trackByName = tracked == null ? null : Collections.unmodifiableMap(tracked);
     }
 
     public String saveCommit() {
-
-        String name = Utils.sha1(this.toString());
-        File f = new File(Repository.COMMIT_DIR, name);
+        byte[] contents = encode();
+        String name = Utils.sha1(contents);
+        File f = ObjectStore.objectFile(Repository.COMMIT_DIR, name);
         this.name = name;
-        Utils.writeObject(f, this);
+        ObjectStore.write(f, ObjectStore.COMMIT, contents);
+        ObjectCache.put(ObjectStore.COMMIT, name, this, weight());
+        CommitGraph.add(this);
+        MessageIndex.add(CommitGraph.indexOf(name), message);
         return name;
     }
 
+    /**
+     * Rewrites this commit in place so that it tracks the given files. The commit keeps its name, so
+     * branches and child commits that refer to it stay valid; used when upgrading the object format.
+     *
+     * @param tracked The new map from file name to blob name.
+     */
+    public void rewriteTrackedFiles(Map<String, String> tracked) {
+        Commit rewritten = new Commit(name, message, date, firstParent, secondParent, Tree.fromMap(tracked), null);
+        File f = ObjectStore.objectFile(Repository.COMMIT_DIR, name);
+        ObjectStore.replace(f, ObjectStore.COMMIT, rewritten.encode());
+        ObjectCache.remove(ObjectStore.COMMIT, name);
+    }
+
+    /**
+     * Encodes this commit in the binary commit format.
+     */
+    private byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FORMAT_MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            out.writeByte((firstParent == null ? 0 : 1) + (secondParent == null ? 0 : 1));
+            if (firstParent != null) {
+                out.write(Utils.fromHex(firstParent));
+            }
+            if (secondParent != null) {
+                out.write(Utils.fromHex(secondParent));
+            }
+            out.writeLong(date.getTime());
+            writeString(out, message);
+            out.write(Utils.fromHex(getTree()));
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw Utils.error("Internal error serializing commit.");
+        }
+    }
+
+    /**
+     * Decodes a commit from IN, in the binary format or, for commits written by older versions,
+     * Java serialization.
+     *
+     * @param name       The name of the commit.
+     * @param in         The contents of the commit object.
+     * @param headerOnly Whether to stop before the file map, leaving it to be loaded on demand.
+     */
+    private static Commit decode(String name, InputStream in, boolean headerOnly) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(4);
+        DataInputStream data = new DataInputStream(buffered);
+        if (data.readInt() != FORMAT_MAGIC) {
+            buffered.reset();
+            try {
+                Commit legacy = (Commit) new ObjectInputStream(buffered).readObject();
+                legacy.name = name;
+                legacy.trackByName = Collections.unmodifiableMap(legacy.trackByName);
+                return legacy;
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw Utils.error("Corrupt commit %s.", name);
+            }
+        }
+        int version = data.readByte();
+        if (version != FORMAT_VERSION && version != INLINE_FILES_VERSION) {
+            throw Utils.error("Commit %s has unsupported format version %d.", name, version);
+        }
+        int parentCount = data.readByte();
+        String[] parents = new String[2];
+        for (int i = 0; i < parentCount; i++) {
+            byte[] id = new byte[ID_BYTES];
+            data.readFully(id);
+            parents[i] = Utils.toHex(id);
+        }
+        Date date = new Date(data.readLong());
+        String message = readString(data);
+        String tree = null;
+        Map<String, String> tracked = null;
+        if (version == FORMAT_VERSION) {
+            byte[] id = new byte[ID_BYTES];
+            data.readFully(id);
+            tree = Utils.toHex(id);
+        } else if (!headerOnly) {
+            tracked = new TreeMap<>();
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                String fileName = readString(data);
+                byte[] id = new byte[ID_BYTES];
+                data.readFully(id);
+                tracked.put(fileName, Utils.toHex(id));
+            }
+        }
+        return new Commit(name, message, date, parents[0], parents[1], tree, tracked);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
     /**
      * Loads the files associated with a specific commit into the current working directory (CWD).
      * This function performs the following operations:
      * <p>
-     * Retrieves the tracked files for the given commit using {@link Repository#getTrackedFilesByCommit(String)}.
-     * Retrieves the list of files currently present in the CWD using {@link Repository#getCWDFiles()}.
-     * Deletes any files in the CWD that are not part of the tracked files for the specified commit.
-     * Writes the contents of the tracked files (blobs) from the commit into the corresponding files in the CWD.
+     * Compares the tree of the head commit with the tree of the given commit using {@link Tree#diff},
+     * which skips every directory the two share, so only the paths that differ are touched.
+     * Fails, before anything is changed, if an untracked file is in the way of a file to be written.
+     * Deletes the files of the head commit, and the files staged for addition, that the given commit
+     * does not track.
+     * Writes the files that differ, in parallel, and the files both commits share that were changed
+     * in the CWD; files that already hold the blob of the given commit are left as they are.
      *
      * @param commitName The name of the commit whose files are to be loaded into the CWD.
      *                   This should correspond to a valid commit in the repository.
      * @see Repository#getTrackedFilesByCommit(String)
-     * @see Repository#getCWDFiles()
+     * @see Blob#writeAll(Map)
      */
     public static void loadCommitFiles(String commitName) {
-        Map<String, String> wanted = Repository.getTrackedFilesByCommit(commitName);
-        List<String> CWDFiles = Repository.getCWDFiles();
-        for (String fileName : CWDFiles) {
-            if (!wanted.containsKey(fileName)) {
-                File del = new File(Repository.CWD, fileName);
-                if (del.exists()) {
-                    del.delete();
-                }
+        Commit head = getCommitByName(Repository.getHead());
+        Commit target = getCommitByName(commitName);
+        Map<String, String> headFiles = head.getTrackByName();
+        Map<String, String> wanted = target.getTrackByName();
+        SortedMap<String, String> writes = new TreeMap<>();
+        List<String> deletes = new ArrayList<>();
+        for (Map.Entry<String, String[]> change : Tree.diff(head.getTree(), target.getTree()).entrySet()) {
+            if (change.getValue()[1] == null) {
+                deletes.add(change.getKey());
+            } else {
+                writes.put(change.getKey(), change.getValue()[1]);
             }
         }
-        for (Map.Entry<String, String> entry : wanted.entrySet()) {
-            String fileName = entry.getKey();
-            String blobName = entry.getValue();
-
-            File blobFile = new File(Repository.BLOBS_DIR, blobName);
+        for (String path : Index.entries().keySet()) {
+            if (!headFiles.containsKey(path) && !wanted.containsKey(path)) {
+                deletes.add(path);
+            }
+        }
+        for (Map.Entry<String, String> file : wanted.entrySet()) {
+            if (!writes.containsKey(file.getKey()) && !holds(file.getKey(), file.getValue())) {
+                writes.put(file.getKey(), file.getValue());
+            }
+        }
+        for (String path : writes.keySet()) {
+            if (!headFiles.containsKey(path) && Index.get(path) == null && new File(Repository.CWD, path).isFile()) {
+                Repository.errorMessage("There is an untracked file in the way; delete it, or add and commit it first.");
+            }
+        }
+        for (String path : deletes) {
+            Repository.removeFileFromCWD(path);
+        }
+        Map<File, String> files = new LinkedHashMap<>();
+        for (Map.Entry<String, String> file : writes.entrySet()) {
+            files.put(new File(Repository.CWD, file.getKey()), file.getValue());
+        }
+        Blob.writeAll(files);
+        for (Map.Entry<String, String> file : writes.entrySet()) {
+            // the file now matches its blob; callers reset the index to this commit, which keeps it
+            Index.put(file.getKey(), Index.stat(new File(Repository.CWD, file.getKey()), file.getValue()));
+        }
+    }
 
+    /**
+     * Checks whether a working file holds a blob, trusting its index entry when its stat data
+     * still matches and hashing it otherwise.
+     */
+    private static boolean holds(String path, String blob) {
+        File file = new File(Repository.CWD, path);
+        Index.Entry entry = Index.get(path);
+        if (entry != null && entry.blob.equals(blob)) {
+            return Index.isUpToDate(path, file);
+        }
+        return file.isFile() && HashService.blobId(file).equals(blob);
+    }
 
-            File newFile = new File(Repository.CWD, fileName);
-            Utils.writeContents(newFile, Utils.readContentsAsString(blobFile));
+    /**
+     * Finds the split point of two commits: a best common ancestor, that is one that is not an
+     * ancestor of another common ancestor. When criss-cross merges leave several, the one with the
+     * latest commit time is used.
+     *
+     * @param firstCommit  The name of the first commit.
+     * @param secondCommit The name of the second commit.
+     * @return The split point, or null if the commits share no history.
+     * @see CommitGraph#mergeBases(int, int)
+     */
+    public static Commit getLowestCommonAncestor(String firstCommit, String secondCommit) {
+        List<Integer> bases = CommitGraph.mergeBases(CommitGraph.indexOf(firstCommit), CommitGraph.indexOf(secondCommit));
+        if (bases.isEmpty()) {
+            return null;
         }
+        int split = bases.get(0);
+        for (int base : bases) {
+            if (CommitGraph.timeOf(base) > CommitGraph.timeOf(split)) {
+                split = base;
+            }
+        }
+        return getCommitByName(CommitGraph.idAt(split));
     }
 
+    /**
+     * return the names of all best common ancestors of two commits
+     */
+    public static List<String> getMergeBases(String firstCommit, String secondCommit) {
+        List<String> names = new ArrayList<>();
+        for (int base : CommitGraph.mergeBases(CommitGraph.indexOf(firstCommit), CommitGraph.indexOf(secondCommit))) {
+            names.add(CommitGraph.idAt(base));
+        }
+        return names;
+    }
 
-    public static Commit getLowestCommonAncestor(String firstCommit, String secondCommit) {
-        Commit first = Commit.getCommitByName(firstCommit);
-        Commit second = Commit.getCommitByName(secondCommit);
-        Set<String> set = getCommitList(first).stream().map(Commit::getName).collect(Collectors.toSet());
-        Commit split = getCommitList(second).stream()
-                .filter(commit -> set.contains(commit.getName()))
-                .max(Comparator.comparing(Commit::getDate))
-                .orElse(null);
 
-        return split;
+    /**
+     * return commit object using commit name
+     */
+    public static Commit getCommitByName(String name) {
+        return read(name, false);
     }
 
-    public static List<Commit> getCommitList(Commit commit) {
-        List<Commit> ans = new ArrayList<>();
-        dfs(commit, new HashSet<>(), ans);
-        return ans;
+    /**
+     * return commit object with its parents, date and message only; the tracked files are read
+     * if they are asked for
+     */
+    public static Commit getCommitHeader(String name) {
+        return read(name, true);
     }
 
-    public static void dfs(Commit current, Set<String> visited, List<Commit> list) {
-        list.add(current);
-        visited.add(current.getName());
-        String first = current.getFirstParent();
-        if (first != null && !visited.contains(first)) {
-            dfs(getCommitByName(first), visited, list);
+    private static Commit read(String name, boolean headerOnly) {
+        Commit commit = ObjectCache.get(ObjectStore.COMMIT, name);
+        if (commit != null) {
+            return commit;
+        }
+        File f = ObjectStore.objectFile(Repository.COMMIT_DIR, name);
+        try {
+            if (f.exists()) {
+                try (InputStream in = ObjectStore.open(f)) {
+                    commit = decode(name, in, headerOnly);
+                }
+            } else {
+                byte[] packed = PackFile.read(name);
+                if (packed == null) {
+                    throw Utils.error("No commit with that id exists.");
+                }
+                commit = decode(name, new ByteArrayInputStream(packed), headerOnly);
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error reading commit %s: %s", name, e.getMessage());
         }
-        String second = current.getSecondParent();
-        if (second != null && !visited.contains(second)) {
-            dfs(getCommitByName(second), visited, list);
+        // a version 1 commit read without its file map cannot stand in for the whole commit
+        if (commit.tree != null || commit.trackByName != null) {
+            ObjectCache.put(ObjectStore.COMMIT, name, commit, commit.weight());
         }
+        return commit;
     }
 
+    /**
+     * return the estimated size of this commit in memory, for the object cache
+     */
+    private long weight() {
+        long weight = 256 + 2L * message.length();
+        if (trackByName != null) {
+            for (String fileName : trackByName.keySet()) {
+                weight += 200 + 2L * fileName.length();
+            }
+        }
+        return weight;
+    }
 
     /**
-     * return commit object using commit name
+     * return the stored bytes of a commit, loose or packed
      */
-    public static Commit getCommitByName(String name) {
-        File f = new File(Repository.COMMIT_DIR, name);
-        Commit commit = Utils.readObject(f, Commit.class);
-        return commit;
+    public static byte[] readContents(String name) {
+        File f = ObjectStore.objectFile(Repository.COMMIT_DIR, name);
+        if (f.exists()) {
+            return ObjectStore.read(f);
+        }
+        return PackFile.read(name);
     }
 
     public static boolean commitExists(String commitName) {
-        File f = new File(Repository.COMMIT_DIR, commitName);
-        return f.exists();
+        File f = ObjectStore.objectFile(Repository.COMMIT_DIR, commitName);
+        return f.exists() || PackFile.contains(commitName);
+    }
+
+    /**
+     * return the names of all commits, loose and packed, sorted
+     */
+    public static List<String> getAllCommitNames() {
+        Set<String> names = new TreeSet<>(PackFile.list(PackFile.COMMIT));
+        names.addAll(ObjectStore.list(Repository.COMMIT_DIR));
+        return new ArrayList<>(names);
     }
 
     /**
      * getters
      */
     public String getTrackedFileByName(String name) {
-        return this.trackByName.get(name);
+        return getTrackByName().get(name);
     }
 
     public String getMessage() {
@@ -193,16 +440,33 @@ public class Commit implements Serializable {
         return this.secondParent;
     }
 
+    /**
+     * return the tracked files, which are shared through the object cache and so cannot be changed
+     */
     public Map<String, String> getTrackByName() {
+        if (this.trackByName == null) {
+            this.trackByName = Collections.unmodifiableMap(
+                    this.tree != null ? Tree.flatten(this.tree) : getCommitByName(name).getTrackByName());
+            if (name != null) {
+                // the file map was not counted when this commit was cached
+                ObjectCache.put(ObjectStore.COMMIT, name, this, weight());
+            }
+        }
         return this.trackByName;
     }
 
-    public Map<String, String> getTrackBySha() {
-        return this.trackBySha;
+    /**
+     * return the id of the root tree, writing the trees of commits made before trees existed
+     */
+    public String getTree() {
+        if (this.tree == null) {
+            this.tree = Tree.fromMap(getTrackByName());
+        }
+        return this.tree;
     }
 
     public boolean isFileTracked(String fileName) {
-        return this.trackByName.containsKey(fileName);
+        return getTrackByName().containsKey(fileName);
     }
 
     @Override
@@ -213,11 +477,8 @@ public class Commit implements Serializable {
         sb.append("firstParent: ").append(firstParent).append("\n");
         sb.append("secondParent: ").append(secondParent).append("\n");
         sb.append("Tracked Files:\n");
-        for (Map.Entry<String, String> entry : trackBySha.entrySet()) {
-            sb.append("  ").append(entry.getKey()).append("\n");
-        }
-        for (Map.Entry<String, String> entry : trackByName.entrySet()) {
-            sb.append("  ").append(entry.getKey()).append("\n");
+        for (Map.Entry<String, String> entry : getTrackByName().entrySet()) {
+            sb.append("  ").append(entry.getKey()).append(" ").append(entry.getValue()).append("\n");
         }
         return sb.toString();
     }
@@ -0,0 +1,472 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Represents the commit-graph: the shape of the history in one memory-mapped file, so walking
+ * ancestry never has to read a commit object.
+ * Every commit gets a dense index, in an order where parents come before their children, and a
+ * fixed-size record
+ * <pre>
+ *     byte[20] id, int firstParent, int secondParent, long time, int generation
+ * </pre>
+ * where parents are indexes (-1 for none), time is the commit time in milliseconds and the
+ * generation number is 1 for a root commit and one more than the largest generation of its parents
+ * otherwise. The file is
+ * <pre>
+ *     int magic, int version, int count, int sorted, int fanout[256],
+ *     { byte[20] id, int index }[sorted], record[count]
+ * </pre>
+ * where the id lookup lists the first {@code sorted} commits by id, and fanout[b] is the number of
+ * them whose id starts with a byte of at most b, so a commit is found by a binary search of the
+ * mapped file among the ids that share its first byte, as in git's commit-graph. New commits are
+ * appended and the count is updated last, so a partial record left by a crash is ignored; they are
+ * looked up one by one until there are more of them than {@link #MAX_UNSORTED}, and the file is then
+ * rewritten with every commit in the lookup. Rewriting keeps every index.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class CommitGraph {
+
+    public static final File GRAPH_FILE = Repository.COMMIT_GRAPH;
+
+    public static final int NONE = -1;
+
+    /** Most commits appended since the file was last written before it is written again. */
+    public static final int MAX_UNSORTED = 256;
+
+    private static final int MAGIC = 0x47475248;  // "GGRH"
+    private static final int VERSION = 2;
+    private static final int FANOUT_OFFSET = 16;
+    private static final int LOOKUP_OFFSET = FANOUT_OFFSET + 256 * 4;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    private static final int LOOKUP_BYTES = ID_BYTES + 4;
+    private static final int RECORD_BYTES = ID_BYTES + 4 + 4 + 8 + 4;
+
+    /** colors of the merge-base walk */
+    private static final byte FIRST = 1;
+    private static final byte SECOND = 2;
+    private static final byte STALE = 4;
+    /** highest generation first, then latest commit, then highest index */
+    private static final Comparator<Integer> MERGE_BASE_ORDER = Comparator
+            .comparingInt(CommitGraph::generationOf)
+            .thenComparingLong(CommitGraph::timeOf)
+            .thenComparingInt(i -> i)
+            .reversed();
+
+    /** the mapped file, null until loaded */
+    private static MappedByteBuffer graph = null;
+    private static int count = 0;
+    /** number of commits in the id lookup */
+    private static int sorted = 0;
+    /** offset of the first record */
+    private static int records = 0;
+
+    /**
+     * Returns the index of a commit, building or extending the graph if it does not know the commit.
+     *
+     * @param id The name of the commit.
+     * @return Its index in the graph.
+     */
+    public static int indexOf(String id) {
+        int index = find(id);
+        if (index == NONE) {
+            rebuild();
+            index = find(id);
+            if (index == NONE) {
+                throw Utils.error("No commit with that id exists.");
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the ids of commits that start with a prefix.
+     *
+     * @param prefix A lowercase hex prefix.
+     * @param max    Most ids to return.
+     * @return Matching ids, sorted ones first.
+     */
+    public static List<String> findPrefix(String prefix, int max) {
+        load();
+        List<String> matches = new ArrayList<>();
+        byte[] low = Utils.fromHex(pad(prefix, '0'));
+        byte[] high = Utils.fromHex(pad(prefix, 'f'));
+        for (int i = lowerBound(low); i < sorted && matches.size() < max; i++) {
+            byte[] id = lookupIdAt(i);
+            if (Arrays.compareUnsigned(id, high) > 0) {
+                break;
+            }
+            matches.add(Utils.toHex(id));
+        }
+        // commits appended since the lookup was written
+        for (int i = sorted; i < count && matches.size() < max; i++) {
+            String id = idAt(i);
+            if (id.startsWith(prefix)) {
+                matches.add(id);
+            }
+        }
+        return matches;
+    }
+
+    public static String idAt(int index) {
+        load();
+        byte[] id = new byte[ID_BYTES];
+        graph.get(offset(index), id);
+        return Utils.toHex(id);
+    }
+
+    public static int firstParentOf(int index) {
+        load();
+        return graph.getInt(offset(index) + ID_BYTES);
+    }
+
+    public static int secondParentOf(int index) {
+        load();
+        return graph.getInt(offset(index) + ID_BYTES + 4);
+    }
+
+    public static long timeOf(int index) {
+        load();
+        return graph.getLong(offset(index) + ID_BYTES + 8);
+    }
+
+    public static int generationOf(int index) {
+        load();
+        return graph.getInt(offset(index) + ID_BYTES + 16);
+    }
+
+    /**
+     * Returns the number of commits in the graph.
+     */
+    public static int size() {
+        load();
+        return count;
+    }
+
+    /**
+     * Finds the best common ancestors of two commits: the common ancestors that are not ancestors of
+     * another common ancestor.
+     * Both commits are painted with their own color and colors are pushed down to parents, taking
+     * commits from a queue ordered by generation number, highest first. A commit is only taken once
+     * every commit with a higher generation number is done, so when it carries both colors it is a
+     * best common ancestor, unless it was already marked stale by a common ancestor above it;
+     * either way its ancestors are marked stale. The walk ends as soon as every queued commit is
+     * stale, so it only visits the history since the two commits diverged.
+     *
+     * @param first  The index of the first commit.
+     * @param second The index of the second commit.
+     * @return The indexes of the best common ancestors, highest generation first; empty if the
+     * commits share no history.
+     */
+    public static List<Integer> mergeBases(int first, int second) {
+        List<Integer> result = new ArrayList<>();
+        if (first == second) {
+            result.add(first);
+            return result;
+        }
+        Map<Integer, Byte> colors = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(MERGE_BASE_ORDER);
+        colors.put(first, FIRST);
+        colors.put(second, SECOND);
+        queue.add(first);
+        queue.add(second);
+        // number of queued commits not yet marked stale
+        int active = 2;
+        while (active > 0) {
+            int current = queue.poll();
+            byte color = colors.get(current);
+            if ((color & STALE) == 0) {
+                active--;
+            }
+            if (color == (FIRST | SECOND)) {
+                result.add(current);
+                color |= STALE;
+            }
+            for (int parent : new int[]{firstParentOf(current), secondParentOf(current)}) {
+                if (parent == NONE) {
+                    continue;
+                }
+                Byte old = colors.get(parent);
+                byte painted = (byte) ((old == null ? 0 : old) | color);
+                if (old != null && old == painted) {
+                    continue;
+                }
+                colors.put(parent, painted);
+                if (old == null) {
+                    queue.add(parent);
+                    if ((painted & STALE) == 0) {
+                        active++;
+                    }
+                } else if ((old & STALE) == 0 && (painted & STALE) != 0) {
+                    active--;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Appends a new commit to the graph. Its parents must already be in the graph.
+     *
+     * @param commit The commit, after it has been saved.
+     */
+    public static void add(Commit commit) {
+        if (find(commit.getName()) != NONE) {
+            return;
+        }
+        int first = commit.getFirstParent() == null ? NONE : indexOf(commit.getFirstParent());
+        int second = commit.getSecondParent() == null ? NONE : indexOf(commit.getSecondParent());
+        // a parent missing from the graph makes indexOf rebuild it, from every saved commit
+        if (find(commit.getName()) != NONE) {
+            return;
+        }
+        int generation = 1 + Math.max(first == NONE ? 0 : generationOf(first), second == NONE ? 0 : generationOf(second));
+        if (count - sorted >= MAX_UNSORTED) {
+            compact(commit, first, second, generation);
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(GRAPH_FILE, "rw")) {
+            raf.seek(records + (long) count * RECORD_BYTES);
+            raf.write(Utils.fromHex(commit.getName()));
+            raf.writeInt(first);
+            raf.writeInt(second);
+            raf.writeLong(commit.getDate().getTime());
+            raf.writeInt(generation);
+            raf.seek(8);
+            raf.writeInt(count + 1);
+        } catch (IOException e) {
+            throw Utils.error("Error writing commit-graph: %s", e.getMessage());
+        }
+        unload();
+    }
+
+    /**
+     * Writes the graph of every commit in the repository from scratch.
+     */
+    public static void rebuild() {
+        Map<String, Commit> commits = new HashMap<>();
+        for (String name : Commit.getAllCommitNames()) {
+            commits.put(name, Commit.getCommitHeader(name));
+        }
+        // order commits so that parents come first, without recursion
+        List<Commit> ordered = new ArrayList<>();
+        Set<String> done = new HashSet<>();
+        for (String start : new TreeSet<>(commits.keySet())) {
+            Deque<String> stack = new ArrayDeque<>();
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String name = stack.peek();
+                if (done.contains(name)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit commit = commits.get(name);
+                boolean ready = true;
+                for (String parent : new String[]{commit.getFirstParent(), commit.getSecondParent()}) {
+                    if (parent != null && commits.containsKey(parent) && !done.contains(parent)) {
+                        stack.push(parent);
+                        ready = false;
+                    }
+                }
+                if (ready) {
+                    stack.pop();
+                    done.add(name);
+                    ordered.add(commit);
+                }
+            }
+        }
+
+        int size = ordered.size();
+        Map<String, Integer> index = new HashMap<>();
+        byte[][] ids = new byte[size][];
+        int[] firsts = new int[size];
+        int[] seconds = new int[size];
+        long[] times = new long[size];
+        int[] generations = new int[size];
+        for (int i = 0; i < size; i++) {
+            Commit commit = ordered.get(i);
+            ids[i] = Utils.fromHex(commit.getName());
+            firsts[i] = index.getOrDefault(commit.getFirstParent(), NONE);
+            seconds[i] = index.getOrDefault(commit.getSecondParent(), NONE);
+            times[i] = commit.getDate().getTime();
+            generations[i] = 1 + Math.max(firsts[i] == NONE ? 0 : generations[firsts[i]],
+                    seconds[i] == NONE ? 0 : generations[seconds[i]]);
+            index.put(commit.getName(), i);
+        }
+        write(ids, firsts, seconds, times, generations);
+        // the message index was built from the old indexes
+        MessageIndex.clear();
+    }
+
+    /**
+     * Writes the graph again with a new commit, putting every commit in the id lookup. Indexes do
+     * not change, so nothing built from them has to be.
+     */
+    private static void compact(Commit commit, int first, int second, int generation) {
+        int size = count + 1;
+        byte[][] ids = new byte[size][];
+        int[] firsts = new int[size];
+        int[] seconds = new int[size];
+        long[] times = new long[size];
+        int[] generations = new int[size];
+        for (int i = 0; i < count; i++) {
+            ids[i] = Utils.fromHex(idAt(i));
+            firsts[i] = firstParentOf(i);
+            seconds[i] = secondParentOf(i);
+            times[i] = timeOf(i);
+            generations[i] = generationOf(i);
+        }
+        ids[count] = Utils.fromHex(commit.getName());
+        firsts[count] = first;
+        seconds[count] = second;
+        times[count] = commit.getDate().getTime();
+        generations[count] = generation;
+        write(ids, firsts, seconds, times, generations);
+    }
+
+    /** Writes a graph file whose id lookup holds every commit, and installs it. */
+    private static void write(byte[][] ids, int[] firsts, int[] seconds, long[] times, int[] generations) {
+        Integer[] byId = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            byId[i] = i;
+        }
+        Arrays.sort(byId, (a, b) -> Arrays.compareUnsigned(ids[a], ids[b]));
+        int[] fanout = new int[256];
+        for (byte[] id : ids) {
+            fanout[id[0] & 0xff]++;
+        }
+        for (int i = 1; i < 256; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+        File tmp = new File(GRAPH_FILE.getParentFile(), GRAPH_FILE.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.length);
+            out.writeInt(ids.length);
+            for (int f : fanout) {
+                out.writeInt(f);
+            }
+            for (int i : byId) {
+                out.write(ids[i]);
+                out.writeInt(i);
+            }
+            for (int i = 0; i < ids.length; i++) {
+                out.write(ids[i]);
+                out.writeInt(firsts[i]);
+                out.writeInt(seconds[i]);
+                out.writeLong(times[i]);
+                out.writeInt(generations[i]);
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw Utils.error("Error writing commit-graph: %s", e.getMessage());
+        }
+        if (!tmp.renameTo(GRAPH_FILE)) {
+            tmp.delete();
+            throw Utils.error("Could not install commit-graph.");
+        }
+        unload();
+    }
+
+    /**
+     * Forgets the mapped graph so it is read again on next use.
+     */
+    public static void unload() {
+        graph = null;
+        count = 0;
+        sorted = 0;
+        records = 0;
+    }
+
+    /** Returns the index of a commit, or NONE if the graph does not know it. */
+    private static int find(String name) {
+        load();
+        byte[] id = Utils.fromHex(name);
+        int i = lowerBound(id);
+        if (i < sorted && Arrays.equals(lookupIdAt(i), id)) {
+            return graph.getInt(LOOKUP_OFFSET + i * LOOKUP_BYTES + ID_BYTES);
+        }
+        for (i = sorted; i < count; i++) {
+            if (idAt(i).equals(name)) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    /** Returns the position of the first id in the lookup that is not below ID. */
+    private static int lowerBound(byte[] id) {
+        int first = id[0] & 0xff;
+        int from = first == 0 ? 0 : graph.getInt(FANOUT_OFFSET + (first - 1) * 4);
+        int to = graph.getInt(FANOUT_OFFSET + first * 4);
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (Arrays.compareUnsigned(lookupIdAt(mid), id) < 0) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    private static byte[] lookupIdAt(int i) {
+        byte[] id = new byte[ID_BYTES];
+        graph.get(LOOKUP_OFFSET + i * LOOKUP_BYTES, id);
+        return id;
+    }
+
+    private static String pad(String prefix, char digit) {
+        StringBuilder padded = new StringBuilder(prefix);
+        while (padded.length() < Utils.UID_LENGTH) {
+            padded.append(digit);
+        }
+        return padded.toString();
+    }
+
+    private static void load() {
+        if (graph != null) {
+            return;
+        }
+        if (!GRAPH_FILE.exists() || !isCurrentVersion()) {
+            rebuild();
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(GRAPH_FILE, "r")) {
+            graph = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } catch (IOException e) {
+            throw Utils.error("Error reading commit-graph: %s", e.getMessage());
+        }
+        if (graph.capacity() < LOOKUP_OFFSET || graph.getInt(0) != MAGIC || graph.getInt(4) != VERSION) {
+            graph = null;
+            throw Utils.error("Corrupt commit-graph.");
+        }
+        sorted = graph.getInt(12);
+        records = LOOKUP_OFFSET + sorted * LOOKUP_BYTES;
+        count = Math.min(graph.getInt(8), (graph.capacity() - records) / RECORD_BYTES);
+    }
+
+    /** Checks whether the graph file is in this version of the format; older ones are rebuilt. */
+    private static boolean isCurrentVersion() {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(GRAPH_FILE))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int offset(int index) {
+        return records + index * RECORD_BYTES;
+    }
+}
@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves abbreviated commit ids. The ids of all commits are kept sorted in the id lookup of the
+ * {@link CommitGraph}, behind a fanout table, so a prefix is resolved with a binary search of the
+ * mapped file, and only the few commits appended since the lookup was last written are compared
+ * one by one.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class CommitIdTable {
+
+    /** Most matches listed when a prefix is ambiguous. */
+    private static final int MAX_REPORTED = 10;
+
+    /**
+     * Resolves a full or abbreviated commit id.
+     *
+     * @param prefix The id or a prefix of it, in hex.
+     * @return The full id of the only commit it matches.
+     */
+    public static String resolve(String prefix) {
+        String lower = prefix.toLowerCase();
+        if (lower.length() == Utils.UID_LENGTH && Commit.commitExists(lower)) {
+            return lower;
+        }
+        List<String> matches = new ArrayList<>();
+        if (!lower.isEmpty() && lower.length() <= Utils.UID_LENGTH && lower.matches("[0-9a-f]+")) {
+            matches = find(lower, MAX_REPORTED + 1);
+        }
+        if (matches.isEmpty()) {
+            Repository.errorMessage("No commit with that id exists.");
+        }
+        if (matches.size() > 1) {
+            StringBuilder message = new StringBuilder("Ambiguous commit id " + prefix + "; it could be:");
+            for (int i = 0; i < Math.min(matches.size(), MAX_REPORTED); i++) {
+                message.append("\n  ").append(matches.get(i));
+            }
+            if (matches.size() > MAX_REPORTED) {
+                message.append("\n  ...");
+            }
+            Repository.errorMessage(message.toString());
+        }
+        return matches.get(0);
+    }
+
+    /**
+     * Returns the ids of commits that start with a prefix.
+     *
+     * @param prefix A lowercase hex prefix.
+     * @param max    Most ids to return.
+     * @return Matching ids, in order.
+     */
+    public static List<String> find(String prefix, int max) {
+        return CommitGraph.findPrefix(prefix, max);
+    }
+}
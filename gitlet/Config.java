@@ -0,0 +1,99 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Represents the settings of a repository, stored as key=value lines in .gitlet/config.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Config {
+
+    public static final File CONFIG_FILE = Utils.join(Repository.GITLET_DIR, "config");
+
+    /**
+     * Version of the object format: how blob ids are computed.
+     * Format 1 (repositories without a config) names a blob after its contents and its file name;
+     * format 2 names it after its contents only.
+     */
+    public static final String OBJECT_FORMAT = "objectFormat";
+    /** The object format written by this version of gitlet. */
+    public static final int LATEST_OBJECT_FORMAT = 2;
+
+    /** settings read from the config file, loaded on first use */
+    private static Properties properties = null;
+
+    /**
+     * Returns the value of a setting.
+     *
+     * @param key          The name of the setting.
+     * @param defaultValue The value to return when the setting is absent.
+     * @return The value of the setting.
+     */
+    public static String get(String key, String defaultValue) {
+        return load().getProperty(key, defaultValue);
+    }
+
+    /**
+     * Returns the value of an integer setting.
+     *
+     * @param key          The name of the setting.
+     * @param defaultValue The value to return when the setting is absent.
+     * @return The value of the setting.
+     */
+    public static int getInt(String key, int defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw Utils.error("Invalid value for %s in config: %s", key, value);
+        }
+    }
+
+    /**
+     * Sets a setting and rewrites the config file.
+     *
+     * @param key   The name of the setting.
+     * @param value The new value.
+     */
+    public static void set(String key, String value) {
+        Properties props = load();
+        props.setProperty(key, value);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            props.store(out, null);
+        } catch (IOException e) {
+            throw Utils.error("Error writing config: %s", e.getMessage());
+        }
+        Durability.writeAtomically(CONFIG_FILE, out.toByteArray());
+    }
+
+    /**
+     * Forgets the loaded settings so they are read again on next use.
+     */
+    public static void clear() {
+        properties = null;
+    }
+
+    private static synchronized Properties load() {
+        if (properties == null) {
+            properties = new Properties();
+            if (CONFIG_FILE.exists()) {
+                try (InputStream in = new FileInputStream(CONFIG_FILE)) {
+                    properties.load(in);
+                } catch (IOException e) {
+                    throw Utils.error("Error reading config: %s", e.getMessage());
+                }
+            }
+        }
+        return properties;
+    }
+}
@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary delta encoding used by pack files.
+ * A delta describes a target byte array as a sequence of instructions applied to a base:
+ * copy a range of the base, or insert literal bytes. The encoding is
+ * <pre>
+ *     varint baseSize, varint targetSize, { op }*
+ *     op := COPY varint offset varint length | INSERT varint length bytes
+ * </pre>
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Delta {
+
+    /** Size of the blocks of the base that are indexed for matching. */
+    private static final int BLOCK = 16;
+    private static final int COPY = 1;
+    private static final int INSERT = 2;
+
+    /**
+     * Computes a delta that turns BASE into TARGET.
+     * The base is indexed at every BLOCK-aligned offset, then the target is scanned byte by byte
+     * looking for blocks it shares with the base; matches are extended forward as far as possible.
+     *
+     * @param base   The bytes the delta is computed against.
+     * @param target The bytes the delta should reproduce.
+     * @return The encoded delta.
+     */
+    public static byte[] create(byte[] base, byte[] target) {
+        Map<Integer, Integer> index = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            index.putIfAbsent(blockHash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        int insertStart = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer candidate = index.get(blockHash(target, i));
+            int length = candidate == null ? 0 : matchLength(base, candidate, target, i);
+            if (length < BLOCK) {
+                i++;
+                continue;
+            }
+            int start = candidate;
+            // pull bytes that were pending as an insert into the copy when they match as well
+            while (start > 0 && i > insertStart && base[start - 1] == target[i - 1]) {
+                start--;
+                i--;
+                length++;
+            }
+            writeInsert(out, target, insertStart, i);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, length);
+            i += length;
+            insertStart = i;
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies DELTA to BASE.
+     *
+     * @param base  The bytes the delta was computed against.
+     * @param delta The encoded delta, as returned by {@link #create(byte[], byte[])}.
+     * @return The reconstructed target bytes.
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseSize = readVarint(delta, pos);
+        if (baseSize != base.length) {
+            throw Utils.error("Corrupt delta: base size mismatch.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int written = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++];
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, written, length);
+                written += length;
+            } else if (op == INSERT) {
+                int length = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, written, length);
+                pos[0] += length;
+                written += length;
+            } else {
+                throw Utils.error("Corrupt delta: unknown instruction %d.", op);
+            }
+        }
+        if (written != result.length) {
+            throw Utils.error("Corrupt delta: result size mismatch.");
+        }
+        return result;
+    }
+
+    /**
+     * Reads the size of the target of a delta from its header.
+     *
+     * @param delta The start of an encoded delta, at least as far as its target size.
+     * @return The size of the bytes the delta reconstructs.
+     */
+    public static int targetSize(byte[] delta) {
+        int[] pos = {0};
+        readVarint(delta, pos);
+        return readVarint(delta, pos);
+    }
+
+    private static int blockHash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = offset; i < offset + BLOCK; i++) {
+            h = 31 * h + data[i];
+        }
+        return h;
+    }
+
+    private static int matchLength(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        int length = 0;
+        while (baseOffset + length < base.length && targetOffset + length < target.length
+                && base[baseOffset + length] == target[targetOffset + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[pos[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,179 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Represents how writes to the repository reach the disk. A file is never changed in place: it is
+ * written under a temporary name and renamed over the old one, so after a crash it holds either
+ * its old or its new contents. The {@code durability} setting in .gitlet/config chooses when the
+ * data is forced to disk with fsync:
+ * <ul>
+ *     <li>{@code none}: never; a crash of the machine may lose recent changes.</li>
+ *     <li>{@code batch} (the default): once per command, for every file it wrote, before any ref
+ *     is changed, so a ref never points at an object that did not reach the disk.</li>
+ *     <li>{@code full}: every file before it is renamed into place, and its directory after.</li>
+ * </ul>
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Durability {
+
+    public static final String SETTING = "durability";
+    public static final String NONE = "none";
+    public static final String BATCH = "batch";
+    public static final String FULL = "full";
+
+    /** files and directories written since the last flush, in batch mode; objects are written in parallel */
+    private static final Set<Path> unsynced = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    /**
+     * Writes a file atomically.
+     *
+     * @param file     The file to create or replace.
+     * @param contents Its new contents.
+     */
+    public static void writeAtomically(File file, String contents) {
+        writeAtomically(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes a file atomically.
+     *
+     * @param file     The file to create or replace.
+     * @param contents Its new contents.
+     */
+    public static void writeAtomically(File file, byte[] contents) {
+        File tmp = temporaryFile(file);
+        try {
+            Files.write(tmp.toPath(), contents);
+        } catch (IOException e) {
+            tmp.delete();
+            throw Utils.error("Error writing %s: %s", file.getName(), e.getMessage());
+        }
+        install(tmp, file);
+    }
+
+    /**
+     * Returns a new, empty file next to FILE to write its next contents to before {@link #install}.
+     */
+    public static File temporaryFile(File file) {
+        try {
+            file.getParentFile().mkdirs();
+            return Files.createTempFile(file.getParentFile().toPath(), file.getName() + ".", ".tmp").toFile();
+        } catch (IOException e) {
+            throw Utils.error("Cannot create a temporary file for %s: %s", file.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Renames a completely written file over another one.
+     *
+     * @param written The new contents, under a temporary or lock name.
+     * @param file    The file to create or replace.
+     */
+    public static void install(File written, File file) {
+        String mode;
+        try {
+            mode = mode();
+            if (mode.equals(FULL)) {
+                force(written.toPath(), false);
+            }
+            Files.move(written.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            written.delete();
+            throw Utils.error("Cannot update %s: %s", file.getName(), e.getMessage());
+        } catch (GitletException e) {
+            written.delete();
+            throw e;
+        }
+        if (mode.equals(FULL)) {
+            force(file.getParentFile().toPath(), true);
+        } else if (mode.equals(BATCH)) {
+            unsynced.add(file.toPath());
+            unsynced.add(file.getParentFile().toPath());
+        }
+    }
+
+    /**
+     * Forces a completely written file to disk before it is renamed into place, unless durability
+     * is off; refs and the journal are synced this way in batch mode as well.
+     *
+     * @param file The written file.
+     */
+    public static void sync(File file) {
+        if (!mode().equals(NONE)) {
+            force(file.toPath(), false);
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to disk, unless durability is off.
+     *
+     * @param dir The directory.
+     */
+    public static void syncDirectory(File dir) {
+        if (!mode().equals(NONE)) {
+            force(dir.toPath(), true);
+        }
+    }
+
+    /**
+     * Records that a directory entry was removed, so that the removal is forced to disk like a write.
+     *
+     * @param file The removed file.
+     */
+    public static void removed(File file) {
+        String mode = mode();
+        if (mode.equals(FULL)) {
+            force(file.getParentFile().toPath(), true);
+        } else if (mode.equals(BATCH)) {
+            unsynced.add(file.getParentFile().toPath());
+        }
+    }
+
+    /**
+     * Forces every file written since the last call to disk; in batch mode this happens at the end
+     * of each command and before refs change.
+     */
+    public static void flush() {
+        synchronized (unsynced) {
+            for (Path path : unsynced) {
+                force(path, Files.isDirectory(path));
+            }
+            unsynced.clear();
+        }
+    }
+
+    private static String mode() {
+        if (!Repository.GITLET_DIR.exists()) {
+            return NONE;
+        }
+        String mode = Config.get(SETTING, BATCH).trim();
+        if (!mode.equals(NONE) && !mode.equals(BATCH) && !mode.equals(FULL)) {
+            throw Utils.error("Invalid value for %s in config: %s", SETTING, mode);
+        }
+        return mode;
+    }
+
+    private static void force(Path path, boolean directory) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // a file removed since it was written needs no syncing; directories cannot be
+            // opened on every platform, and there their entries are synced with the files
+            if (!directory && Files.exists(path)) {
+                throw Utils.error("Error syncing %s: %s", path.getFileName(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Computes blob ids of files.
+ * Files are streamed through a SHA-1 {@link MessageDigest} in fixed-size chunks, so hashing never
+ * decodes contents into a String (binary files hash correctly) and never holds a whole file in memory.
+ * Results are remembered for the rest of the command, so a file that is looked at by add, commit and
+ * the blob store is only read once.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class HashService {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /** ids computed during this command, keyed by absolute path; files are hashed in parallel by add */
+    private static final Map<String, CachedHash> hashes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the blob id of a file: the SHA-1 of its contents, so identical files share one blob
+     * whatever they are called. Repositories still in object format 1 (see {@link Config#OBJECT_FORMAT})
+     * hash the contents followed by the file name.
+     *
+     * @param file The file to hash.
+     * @return The id as 40 hex digits.
+     */
+    public static String blobId(File file) {
+        String key = file.getAbsolutePath();
+        CachedHash cached = hashes.get(key);
+        if (cached != null && cached.matches(file)) {
+            return cached.id;
+        }
+        MessageDigest md = newDigest();
+        digest(md, file);
+        String id = blobId(md, file);
+        hashes.put(key, new CachedHash(file, id));
+        return id;
+    }
+
+    /**
+     * Returns the blob id of contents that were already fed to a digest, as {@link #blobId(File)}
+     * returns for a file holding them.
+     *
+     * @param md   A digest from {@link #newDigest()}, updated with the contents.
+     * @param file The file the contents were read from.
+     * @return The id as 40 hex digits.
+     */
+    static String blobId(MessageDigest md, File file) {
+        if (Config.getInt(Config.OBJECT_FORMAT, 1) < Config.LATEST_OBJECT_FORMAT) {
+            md.update(file.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        return Utils.toHex(md.digest());
+    }
+
+    /**
+     * Forgets every id computed so far.
+     */
+    public static void clear() {
+        hashes.clear();
+    }
+
+    private static void digest(MessageDigest md, File file) {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error reading %s: %s", file.getName(), e.getMessage());
+        }
+    }
+
+    /** Returns a digest for blob ids. */
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** An id together with the size and modification time of the file it was computed from. */
+    private static class CachedHash {
+        final long length;
+        final long lastModified;
+        final String id;
+
+        CachedHash(File file, String id) {
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.id = id;
+        }
+
+        boolean matches(File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+}
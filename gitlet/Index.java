@@ -0,0 +1,451 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Represents the gitlet index: the snapshot the next commit will record, as one binary file.
+ * Every file of that snapshot has an entry with its blob and the stat data of the working file the
+ * blob was taken from, so a file whose stat data still matches does not need to be hashed again.
+ * What is staged is the difference between the index and the head commit.
+ * <p>
+ * The file holds the entries in path order:
+ * <pre>
+ *     int magic, int version, int count,
+ *     { int pathLength, byte[pathLength] path (UTF-8), byte[20] blob, int mode,
+ *       long size, long mtime, long ctime, long inode }[count],
+ *     byte[20] SHA-1 of everything before it
+ * </pre>
+ * with times in nanoseconds. Entries whose stat data is unknown have size, times and inode 0.
+ * The file is rewritten as a whole, next to the old one, and renamed over it, so readers see
+ * either the old or the new index.
+ * <p>
+ * A file modified within the timestamp granularity of the moment its entry was recorded could
+ * keep its size and mtime. As in git, an entry whose mtime is not older than the index file is
+ * "racily clean" and is hashed rather than trusted, and when the index is written such entries
+ * are smudged (their size set to -1) so they are still hashed once newer index files exist. The
+ * new file is created before any entry is written, and its mtime bounds the mtime it will have,
+ * so entries are smudged as they are written and the index is written once.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Index {
+
+    public static final File INDEX_FILE = Repository.INDEX;
+
+    public static final int REGULAR_FILE = 0100644;
+    public static final int EXECUTABLE_FILE = 0100755;
+
+    private static final int MAGIC = 0x47494458;  // "GIDX"
+    private static final int VERSION = 1;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** path -> entry, in path order; null until loaded */
+    private static TreeMap<String, Entry> entries = null;
+    /** mtime of the index file in nanoseconds, 0 if there is none */
+    private static long indexMtime = 0;
+    /** whether the loaded entries differ from the index file */
+    private static boolean dirty = false;
+
+    /**
+     * Returns the entry of a path.
+     *
+     * @param path The path of the file.
+     * @return The entry, or null if the path is not in the index.
+     */
+    public static Entry get(String path) {
+        return load().get(path);
+    }
+
+    /**
+     * Returns every entry of the index, in path order.
+     */
+    public static SortedMap<String, Entry> entries() {
+        return Collections.unmodifiableSortedMap(load());
+    }
+
+    /**
+     * Adds or replaces the entry of a path. The change is kept in memory until {@link #write()}.
+     *
+     * @param path  The path of the file.
+     * @param entry Its new entry.
+     */
+    public static void put(String path, Entry entry) {
+        load().put(path, entry);
+        dirty = true;
+    }
+
+    /**
+     * Removes the entry of a path. The change is kept in memory until {@link #write()}.
+     *
+     * @param path The path of the file.
+     */
+    public static void remove(String path) {
+        dirty |= load().remove(path) != null;
+    }
+
+    /**
+     * Replaces the index by the files of a commit. Entries whose blob does not change keep their
+     * stat data. The change is kept in memory until {@link #write()}.
+     *
+     * @param files Map from path to blob name.
+     */
+    public static void reset(Map<String, String> files) {
+        TreeMap<String, Entry> old = load();
+        TreeMap<String, Entry> result = new TreeMap<>();
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Entry entry = old.get(file.getKey());
+            result.put(file.getKey(), entry != null && entry.blob.equals(file.getValue())
+                    ? entry : Entry.unknown(file.getValue()));
+        }
+        entries = result;
+        dirty = true;
+    }
+
+    /**
+     * Checks whether a working file still holds the blob of its entry. When its size, mtime and
+     * inode match the entry, and the entry is not racily clean, the file is not read at all;
+     * otherwise it is hashed, and if it turns out unchanged its entry gets the new stat data so
+     * the next check is cheap again.
+     *
+     * @param path The path of the file.
+     * @param file The working file.
+     * @return True if the file exists and holds the blob of its entry.
+     */
+    public static boolean isUpToDate(String path, File file) {
+        return isUpToDate(path, file, statOrNull(file, null));
+    }
+
+    /**
+     * Checks whether a working file still holds the blob of its entry, as {@link #isUpToDate(String, File)},
+     * with stat data that was already read.
+     *
+     * @param path    The path of the file.
+     * @param file    The working file.
+     * @param current The stat data of the working file, or null if it does not exist.
+     * @return True if the file exists and holds the blob of its entry.
+     */
+    public static boolean isUpToDate(String path, File file, Entry current) {
+        Entry entry = get(path);
+        if (entry == null || current == null) {
+            return false;
+        }
+        if (matchesStat(path, current)) {
+            return true;
+        }
+        if (entry.size >= 0 && entry.size != current.size) {
+            return false;
+        }
+        if (!HashService.blobId(file).equals(entry.blob)) {
+            return false;
+        }
+        put(path, current.withBlob(entry.blob));
+        return true;
+    }
+
+    /**
+     * Checks whether the entry of a path has the given stat data and can be trusted on it, so the
+     * file holds the blob of the entry without being hashed.
+     *
+     * @param path    The path of the file.
+     * @param current The stat data of the working file.
+     * @return True if the entry is known to be up to date; false if the file has to be hashed to tell.
+     */
+    public static boolean matchesStat(String path, Entry current) {
+        Entry entry = get(path);
+        return entry != null && entry.size == current.size && entry.mtime == current.mtime
+                && entry.inode == current.inode && !isRacy(entry);
+    }
+
+    /**
+     * Writes the index file if anything changed since it was read.
+     */
+    public static void writeIfChanged() {
+        if (dirty) {
+            write();
+        }
+    }
+
+    /**
+     * Writes the index file; inside a {@link Transaction} it is written when the transaction commits.
+     */
+    public static void write() {
+        if (Transaction.isActive()) {
+            load();
+            dirty = true;
+            return;
+        }
+        Durability.install(writeLock(), INDEX_FILE);
+        installed();
+    }
+
+    /**
+     * Checks whether the loaded index differs from the index file.
+     */
+    static boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes the loaded index to index.lock, to be renamed over the index file and followed by
+     * {@link #installed()}. Entries that would be racily clean in the new file are smudged.
+     *
+     * @return The written lock file.
+     */
+    static File writeLock() {
+        TreeMap<String, Entry> current = load();
+        File lock = new File(INDEX_FILE.getParentFile(), INDEX_FILE.getName() + ".lock");
+        MessageDigest md = newDigest();
+        try (FileOutputStream file = new FileOutputStream(lock);
+             DigestOutputStream digest = new DigestOutputStream(new BufferedOutputStream(file), md);
+             DataOutputStream out = new DataOutputStream(digest)) {
+            // the finished file is at least as new as the one just created
+            long created = nanos(Files.getLastModifiedTime(lock.toPath()));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> e : current.entrySet()) {
+                byte[] path = e.getKey().getBytes(StandardCharsets.UTF_8);
+                if (e.getValue().size >= 0 && e.getValue().mtime != 0 && e.getValue().mtime >= created) {
+                    e.setValue(e.getValue().smudged());
+                }
+                Entry entry = e.getValue();
+                out.writeInt(path.length);
+                out.write(path);
+                out.write(Utils.fromHex(entry.blob));
+                out.writeInt(entry.mode);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.ctime);
+                out.writeLong(entry.inode);
+            }
+            digest.on(false);
+            out.write(md.digest());
+        } catch (IOException e) {
+            lock.delete();
+            throw Utils.error("Error writing index: %s", e.getMessage());
+        }
+        return lock;
+    }
+
+    /**
+     * Records that the lock file written by {@link #writeLock()} is now the index file.
+     */
+    static void installed() {
+        try {
+            indexMtime = nanos(Files.getLastModifiedTime(INDEX_FILE.toPath()));
+        } catch (IOException e) {
+            throw Utils.error("Could not install index: %s", e.getMessage());
+        }
+        dirty = false;
+    }
+
+    private static boolean isRacy(Entry entry) {
+        return entry.mtime != 0 && entry.mtime >= indexMtime;
+    }
+
+    /**
+     * Forgets the loaded index so it is read again on next use.
+     */
+    public static void unload() {
+        entries = null;
+        indexMtime = 0;
+        dirty = false;
+    }
+
+    /**
+     * Reads the stat data of a working file.
+     *
+     * @param file The working file.
+     * @param blob The blob of its contents.
+     * @return An entry for the file.
+     */
+    public static Entry stat(File file, String blob) {
+        Entry entry = statOrNull(file, blob);
+        if (entry == null) {
+            throw Utils.error("File does not exist.");
+        }
+        return entry;
+    }
+
+    /**
+     * Reads the stat data of a working file that may be gone, as a file listed by a scan can be
+     * deleted before it is stat'ed.
+     *
+     * @param file The working file.
+     * @param blob The blob of its contents.
+     * @return An entry for the file, or null if there is no such file.
+     */
+    public static Entry statOrNull(File file, String blob) {
+        try {
+            Map<String, Object> attributes = Files.readAttributes(file.toPath(), "unix:mode,size,lastModifiedTime,ctime,ino",
+                    LinkOption.NOFOLLOW_LINKS);
+            int mode = ((Integer) attributes.get("mode") & 0111) != 0 ? EXECUTABLE_FILE : REGULAR_FILE;
+            return new Entry(blob, mode, (Long) attributes.get("size"),
+                    nanos((FileTime) attributes.get("lastModifiedTime")), nanos((FileTime) attributes.get("ctime")),
+                    (Long) attributes.get("ino"));
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // no unix attributes on this file system
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw Utils.error("Error reading %s: %s", file.getName(), e.getMessage());
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new Entry(blob, file.canExecute() ? EXECUTABLE_FILE : REGULAR_FILE, attributes.size(),
+                    nanos(attributes.lastModifiedTime()), nanos(attributes.creationTime()), 0);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw Utils.error("Error reading %s: %s", file.getName(), e.getMessage());
+        }
+    }
+
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    private static TreeMap<String, Entry> load() {
+        if (entries == null) {
+            if (INDEX_FILE.exists()) {
+                entries = read();
+                try {
+                    indexMtime = nanos(Files.getLastModifiedTime(INDEX_FILE.toPath()));
+                } catch (IOException e) {
+                    throw Utils.error("Error reading index: %s", e.getMessage());
+                }
+            } else {
+                entries = fromLegacyStagingArea();
+            }
+        }
+        return entries;
+    }
+
+    private static TreeMap<String, Entry> read() {
+        TreeMap<String, Entry> result = new TreeMap<>();
+        MessageDigest md = newDigest();
+        try (DataInputStream in = new DataInputStream(new DigestInputStream(
+                new BufferedInputStream(new FileInputStream(INDEX_FILE)), md))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt index.");
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] path = new byte[in.readInt()];
+                in.readFully(path);
+                byte[] blob = new byte[ID_BYTES];
+                in.readFully(blob);
+                result.put(new String(path, StandardCharsets.UTF_8), new Entry(Utils.toHex(blob), in.readInt(),
+                        in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+            }
+            byte[] expected = md.digest();
+            byte[] checksum = new byte[ID_BYTES];
+            in.readFully(checksum);
+            if (!Arrays.equals(expected, checksum)) {
+                throw Utils.error("Corrupt index.");
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error reading index: %s", e.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Builds the index of a repository that has none: the files of the head commit, with what is
+     * staged in the staging directories of older versions of gitlet applied and those directories
+     * emptied.
+     */
+    private static TreeMap<String, Entry> fromLegacyStagingArea() {
+        TreeMap<String, Entry> result = new TreeMap<>();
+        for (Map.Entry<String, String> file : Repository.getTrackedFilesByCommit(Repository.getHead()).entrySet()) {
+            result.put(file.getKey(), Entry.unknown(file.getValue()));
+        }
+        File[] added = Repository.StagingForAdding.listFiles();
+        File[] removed = Repository.StagingForRemoving.listFiles();
+        if ((added == null || added.length == 0) && (removed == null || removed.length == 0)) {
+            return result;
+        }
+        if (added != null) {
+            Map<File, String> blobs = Blob.saveBlobs(added);
+            for (File file : added) {
+                result.put(file.getName(), Entry.unknown(blobs.get(file)));
+            }
+        }
+        if (removed != null) {
+            for (File file : removed) {
+                result.remove(file.getName());
+            }
+        }
+        entries = result;
+        write();
+        for (File[] files : new File[][]{added, removed}) {
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+        return result;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** The blob of a file and the stat data of the working file it was taken from. */
+    public static class Entry {
+        public final String blob;
+        public final int mode;
+        public final long size;
+        public final long mtime;
+        public final long ctime;
+        public final long inode;
+
+        Entry(String blob, int mode, long size, long mtime, long ctime, long inode) {
+            this.blob = blob;
+            this.mode = mode;
+            this.size = size;
+            this.mtime = mtime;
+            this.ctime = ctime;
+            this.inode = inode;
+        }
+
+        /** Returns an entry for a blob whose working file has not been looked at. */
+        public static Entry unknown(String blob) {
+            return new Entry(blob, REGULAR_FILE, 0, 0, 0, 0);
+        }
+
+        /** Returns this entry with a size no file can have, so it is always hashed. */
+        Entry smudged() {
+            return new Entry(blob, mode, -1, mtime, ctime, inode);
+        }
+
+        /** Returns this stat data for another blob. */
+        public Entry withBlob(String blob) {
+            return new Entry(blob, mode, size, mtime, ctime, inode);
+        }
+    }
+}
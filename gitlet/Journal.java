@@ -0,0 +1,170 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents the write-ahead journal, .gitlet/journal, that makes changes to several refs and the
+ * index happen all together. Every new file is first written completely under a lock or temporary
+ * name; then the journal listing the renames and deletions still to do is written and synced, the
+ * changes are made, and the journal is deleted. If the process dies in between, the next gitlet
+ * command finds the journal and finishes the changes, so none of them is lost halfway.
+ * <p>
+ * The journal is {@code # gitlet journal <pid>}, then one {@code rename\t<from>\t<to>} or
+ * {@code delete\t<path>} line per change with paths relative to .gitlet, then {@code end}.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Journal {
+
+    public static final File JOURNAL_FILE = Utils.join(Repository.GITLET_DIR, "journal");
+
+    private static final String HEADER = "# gitlet journal ";
+    private static final String RENAME = "rename";
+    private static final String DELETE = "delete";
+    private static final String END = "end";
+
+    /** whether this process left a journal behind, with the files it names */
+    private static boolean pending = false;
+
+    /**
+     * Renames written files over the files they replace and deletes files, all or none of them
+     * even if the process dies halfway.
+     *
+     * @param renames Map from a completely written file to the file it replaces.
+     * @param deletes Files to delete once every rename is done.
+     */
+    static void apply(Map<File, File> renames, List<File> deletes) {
+        if (renames.size() + deletes.size() == 0) {
+            return;
+        }
+        for (File written : renames.keySet()) {
+            Durability.sync(written);
+        }
+        // what the new files refer to must be on disk before they are
+        Durability.flush();
+        boolean journaled = renames.size() + deletes.size() > 1;
+        if (journaled) {
+            write(renames, deletes);
+        }
+        replay(renames, deletes);
+        if (journaled) {
+            JOURNAL_FILE.delete();
+            Durability.removed(JOURNAL_FILE);
+            pending = false;
+        }
+    }
+
+    /**
+     * Checks whether this process wrote a journal it could not finish; its lock files must then be
+     * left for {@link #recover()}.
+     */
+    static boolean isPending() {
+        return pending;
+    }
+
+    /**
+     * Finishes the changes of a journal left by a gitlet process that died while making them.
+     */
+    public static void recover() {
+        if (!JOURNAL_FILE.exists()) {
+            return;
+        }
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(JOURNAL_FILE.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw Utils.error("Error reading journal: %s", e.getMessage());
+        }
+        if (lines.size() < 2 || !lines.get(0).startsWith(HEADER) || !lines.get(lines.size() - 1).equals(END)) {
+            throw Utils.error("Corrupt journal; remove %s to go on.", JOURNAL_FILE.getName());
+        }
+        long pid;
+        try {
+            pid = Long.parseLong(lines.get(0).substring(HEADER.length()));
+        } catch (NumberFormatException e) {
+            throw Utils.error("Corrupt journal; remove %s to go on.", JOURNAL_FILE.getName());
+        }
+        if (pid != ProcessHandle.current().pid()
+                && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false)) {
+            // still being applied
+            return;
+        }
+        Map<File, File> renames = new LinkedHashMap<>();
+        List<File> deletes = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size() - 1)) {
+            String[] fields = line.split("\t");
+            if (fields[0].equals(RENAME) && fields.length == 3) {
+                renames.put(resolve(fields[1]), resolve(fields[2]));
+            } else if (fields[0].equals(DELETE) && fields.length == 2) {
+                deletes.add(resolve(fields[1]));
+            } else {
+                throw Utils.error("Corrupt journal; remove %s to go on.", JOURNAL_FILE.getName());
+            }
+        }
+        replay(renames, deletes);
+        JOURNAL_FILE.delete();
+        Durability.removed(JOURNAL_FILE);
+        pending = false;
+        Refs.unload();
+        Index.unload();
+    }
+
+    /** Makes the changes; renames already done, whose written file is gone, are skipped. */
+    private static void replay(Map<File, File> renames, List<File> deletes) {
+        for (Map.Entry<File, File> rename : renames.entrySet()) {
+            if (rename.getKey().exists()) {
+                Durability.install(rename.getKey(), rename.getValue());
+            }
+        }
+        for (File file : deletes) {
+            if (file.delete()) {
+                Durability.removed(file);
+            }
+        }
+    }
+
+    /** Writes and syncs the journal. */
+    private static void write(Map<File, File> renames, List<File> deletes) {
+        StringBuilder contents = new StringBuilder(HEADER).append(ProcessHandle.current().pid()).append('\n');
+        for (Map.Entry<File, File> rename : renames.entrySet()) {
+            contents.append(RENAME).append('\t').append(relative(rename.getKey()))
+                    .append('\t').append(relative(rename.getValue())).append('\n');
+        }
+        for (File file : deletes) {
+            contents.append(DELETE).append('\t').append(relative(file)).append('\n');
+        }
+        contents.append(END).append('\n');
+        File tmp = Durability.temporaryFile(JOURNAL_FILE);
+        try {
+            Files.writeString(tmp.toPath(), contents, StandardCharsets.UTF_8);
+            Durability.sync(tmp);
+            Files.move(tmp.toPath(), JOURNAL_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw Utils.error("Error writing journal: %s", e.getMessage());
+        }
+        pending = true;
+        Durability.syncDirectory(Repository.GITLET_DIR);
+    }
+
+    private static String relative(File file) {
+        return Repository.GITLET_DIR.toPath().relativize(file.toPath()).toString();
+    }
+
+    private static File resolve(String path) {
+        Path resolved = Repository.GITLET_DIR.toPath().resolve(path).normalize();
+        if (!resolved.startsWith(Repository.GITLET_DIR.toPath())) {
+            throw Utils.error("Corrupt journal; remove %s to go on.", JOURNAL_FILE.getName());
+        }
+        return resolved.toFile();
+    }
+}
@@ -0,0 +1,222 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line diff used by {@link TextMerge}.
+ * A file is read once as a stream and reduced to one 64-bit hash per line, terminator included, so
+ * a diff holds a long per line rather than the text. Two files are compared with Myers' O(ND)
+ * algorithm in its linear-space form: the middle snake of the edit graph is found by searching
+ * from both ends at once, and the halves on either side of it are diffed recursively, so memory is
+ * proportional to the number of lines and never to the square of it.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class LineDiff {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The lines of a file, as hashes. */
+    public static class Lines {
+        public final long[] hashes;
+        public final int count;
+        /** whether the file holds a NUL byte, and so is not text */
+        public final boolean binary;
+
+        Lines(long[] hashes, int count, boolean binary) {
+            this.hashes = hashes;
+            this.count = count;
+            this.binary = binary;
+        }
+
+        /** Checks whether lines FROM to TO of this file are lines OTHERFROM to OTHERTO of OTHER. */
+        public boolean sameLines(int from, int to, Lines other, int otherFrom, int otherTo) {
+            return Arrays.equals(hashes, from, to, other.hashes, otherFrom, otherTo);
+        }
+    }
+
+    /** A change: lines [aFrom, aTo) of the first file are replaced by lines [bFrom, bTo) of the second. */
+    public static class Hunk {
+        public final int aFrom;
+        public final int aTo;
+        public final int bFrom;
+        public final int bTo;
+
+        Hunk(int aFrom, int aTo, int bFrom, int bTo) {
+            this.aFrom = aFrom;
+            this.aTo = aTo;
+            this.bFrom = bFrom;
+            this.bTo = bTo;
+        }
+    }
+
+    /**
+     * Reads a file as line hashes; a last line without a newline is a line of its own.
+     *
+     * @param in The contents of the file, closed when read.
+     * @return The hashes of its lines.
+     */
+    public static Lines read(InputStream in) {
+        long[] hashes = new long[64];
+        int count = 0;
+        boolean binary = false;
+        try (InputStream buffered = new BufferedInputStream(in)) {
+            long hash = FNV_OFFSET;
+            boolean inLine = false;
+            int b;
+            while ((b = buffered.read()) != -1) {
+                binary |= b == 0;
+                hash = (hash ^ b) * FNV_PRIME;
+                inLine = true;
+                if (b == '\n') {
+                    if (count == hashes.length) {
+                        hashes = Arrays.copyOf(hashes, count * 2);
+                    }
+                    hashes[count++] = hash;
+                    hash = FNV_OFFSET;
+                    inLine = false;
+                }
+            }
+            if (inLine) {
+                if (count == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, count + 1);
+                }
+                hashes[count++] = hash;
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error reading file: %s", e.getMessage());
+        }
+        return new Lines(hashes, count, binary);
+    }
+
+    /**
+     * Computes the changes that turn one file into another.
+     *
+     * @param a The first file.
+     * @param b The second file.
+     * @return The hunks, in order, none of them adjacent to the next.
+     */
+    public static List<Hunk> diff(Lines a, Lines b) {
+        List<Hunk> hunks = new ArrayList<>();
+        diff(a.hashes, 0, a.count, b.hashes, 0, b.count, hunks);
+        // the halves of a split can each end and start with a change at the split point
+        List<Hunk> merged = new ArrayList<>();
+        for (Hunk hunk : hunks) {
+            Hunk last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && last.aTo == hunk.aFrom && last.bTo == hunk.bFrom) {
+                merged.set(merged.size() - 1, new Hunk(last.aFrom, hunk.aTo, last.bFrom, hunk.bTo));
+            } else {
+                merged.add(hunk);
+            }
+        }
+        return merged;
+    }
+
+    private static void diff(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo, List<Hunk> hunks) {
+        while (aFrom < aTo && bFrom < bTo && a[aFrom] == b[bFrom]) {
+            aFrom++;
+            bFrom++;
+        }
+        while (aFrom < aTo && bFrom < bTo && a[aTo - 1] == b[bTo - 1]) {
+            aTo--;
+            bTo--;
+        }
+        if (aFrom == aTo || bFrom == bTo) {
+            if (aFrom < aTo || bFrom < bTo) {
+                hunks.add(new Hunk(aFrom, aTo, bFrom, bTo));
+            }
+            return;
+        }
+        int[] split = middleSnake(a, aFrom, aTo, b, bFrom, bTo);
+        if (split == null || (split[0] == aFrom && split[1] == bFrom) || (split[0] == aTo && split[1] == bTo)) {
+            hunks.add(new Hunk(aFrom, aTo, bFrom, bTo));
+            return;
+        }
+        diff(a, aFrom, split[0], b, bFrom, split[1], hunks);
+        diff(a, split[0], aTo, b, split[1], bTo, hunks);
+    }
+
+    /**
+     * Finds a point on a shortest edit path between two ranges by following furthest-reaching
+     * paths forwards from the start and backwards from the end until they meet.
+     *
+     * @return {x, y}, the point in absolute line numbers, or null if the ranges share no line.
+     */
+    private static int[] middleSnake(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo) {
+        int n = aTo - aFrom;
+        int m = bTo - bFrom;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int length = 2 * maxD + 2;
+        // forward[offset + k]: furthest x on diagonal k = x - y from the start;
+        // backward[offset + k]: furthest x on diagonal k counted from the end
+        int[] forward = new int[length];
+        int[] backward = new int[length];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        // with an odd delta the paths can only meet while extending the forward one
+        boolean front = (delta & 1) != 0;
+        int k1start = 0;
+        int k1end = 0;
+        int k2start = 0;
+        int k2end = 0;
+        for (int d = 0; d < maxD; d++) {
+            for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                int k1Offset = offset + k1;
+                int x1 = k1 == -d || (k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1])
+                        ? forward[k1Offset + 1] : forward[k1Offset - 1] + 1;
+                int y1 = x1 - k1;
+                while (x1 < n && y1 < m && a[aFrom + x1] == b[bFrom + y1]) {
+                    x1++;
+                    y1++;
+                }
+                forward[k1Offset] = x1;
+                if (x1 > n) {
+                    k1end += 2;
+                } else if (y1 > m) {
+                    k1start += 2;
+                } else if (front) {
+                    int k2Offset = offset + delta - k1;
+                    if (k2Offset >= 0 && k2Offset < length && backward[k2Offset] != -1 && x1 >= n - backward[k2Offset]) {
+                        return new int[]{aFrom + x1, bFrom + y1};
+                    }
+                }
+            }
+            for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                int k2Offset = offset + k2;
+                int x2 = k2 == -d || (k2 != d && backward[k2Offset - 1] < backward[k2Offset + 1])
+                        ? backward[k2Offset + 1] : backward[k2Offset - 1] + 1;
+                int y2 = x2 - k2;
+                while (x2 < n && y2 < m && a[aTo - x2 - 1] == b[bTo - y2 - 1]) {
+                    x2++;
+                    y2++;
+                }
+                backward[k2Offset] = x2;
+                if (x2 > n) {
+                    k2end += 2;
+                } else if (y2 > m) {
+                    k2start += 2;
+                } else if (!front) {
+                    int k1Offset = offset + delta - k2;
+                    if (k1Offset >= 0 && k1Offset < length && forward[k1Offset] != -1) {
+                        int x1 = forward[k1Offset];
+                        int y1 = offset + x1 - k1Offset;
+                        if (x1 >= n - x2) {
+                            return new int[]{aFrom + x1, bFrom + y1};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Prints the commits of {@code log} and {@code global-log} through one buffered writer.
+ * The options {@code -n <count>}, {@code --since <date>}, {@code --until <date>} and
+ * {@code --oneline} select and shape what is printed; commits are filtered on the times kept in the
+ * {@link CommitGraph}, so a commit is only read if it is printed.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class LogPrinter {
+
+    /** formatter of commit dates; unlike SimpleDateFormat it is immutable, so one instance serves every commit */
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss yyyy Z")
+            .withZone(ZoneId.systemDefault());
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE));
+    /** most commits to print, or -1 for no limit */
+    private int limit = -1;
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private boolean oneline = false;
+    private int printed = 0;
+
+    /**
+     * Reads the options of a log command.
+     *
+     * @param options The arguments after the command name.
+     * @return A printer for those options.
+     */
+    public static LogPrinter parse(String[] options) {
+        LogPrinter printer = new LogPrinter();
+        for (int i = 0; i < options.length; i++) {
+            String option = options[i];
+            if (option.equals("--oneline")) {
+                printer.oneline = true;
+            } else if (i + 1 < options.length && option.equals("-n")) {
+                try {
+                    printer.limit = Integer.parseInt(options[++i]);
+                } catch (NumberFormatException e) {
+                    Repository.errorMessage("Invalid count.");
+                }
+                if (printer.limit < 0) {
+                    Repository.errorMessage("Invalid count.");
+                }
+            } else if (i + 1 < options.length && option.equals("--since")) {
+                printer.since = parseDate(options[++i], false);
+            } else if (i + 1 < options.length && option.equals("--until")) {
+                printer.until = parseDate(options[++i], true);
+            } else {
+                Repository.errorMessage("Incorrect operands.");
+            }
+        }
+        return printer;
+    }
+
+    /**
+     * Parses a date as yyyy-MM-dd or yyyy-MM-ddTHH:mm[:ss] in the local time zone.
+     *
+     * @param date       The date.
+     * @param endOfRange Whether a date without a time means the end of that day rather than its start.
+     * @return The date in milliseconds since the epoch.
+     */
+    private static long parseDate(String date, boolean endOfRange) {
+        try {
+            if (date.length() == 10) {
+                LocalDate day = LocalDate.parse(date);
+                if (endOfRange) {
+                    return day.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1;
+                }
+                return day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.parse(date.replace(' ', 'T')).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            Repository.errorMessage("Invalid date: " + date);
+            return 0;
+        }
+    }
+
+    /**
+     * Checks whether the limit of commits to print is reached.
+     */
+    public boolean isDone() {
+        return limit >= 0 && printed >= limit;
+    }
+
+    /**
+     * Checks whether a commit made at TIME is to be printed.
+     *
+     * @param time The commit time in milliseconds since the epoch.
+     */
+    public boolean accepts(long time) {
+        return time >= since && time <= until;
+    }
+
+    /**
+     * Prints a commit.
+     *
+     * @param name The name of the commit.
+     */
+    public void print(String name) {
+        Commit commit = Commit.getCommitHeader(name);
+        if (oneline) {
+            String message = commit.getMessage();
+            int newline = message.indexOf('\n');
+            out.print(name);
+            out.print(' ');
+            out.println(newline < 0 ? message : message.substring(0, newline));
+        } else {
+            out.println("===");
+            out.print("commit ");
+            out.println(name);
+            out.print("Date: ");
+            out.println(DATE_FORMAT.format(Instant.ofEpochMilli(commit.getDate().getTime())));
+            out.println(commit.getMessage());
+            out.println();
+        }
+        printed++;
+    }
+
+    /**
+     * Writes out everything printed.
+     */
+    public void flush() {
+        out.flush();
+    }
+}
@@ -1,5 +1,7 @@
 package gitlet;
 
+import java.util.Arrays;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author Abdelarahman Mostafa
  */
@@ -9,6 +11,19 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        try {
+            run(args);
+            Durability.flush();
+        } catch (GitletException e) {
+            System.err.println(e.getMessage());
+            // what the command wrote before it failed is kept, so it must reach the disk as well
+            Durability.flush();
+            System.exit(0);
+        }
+    }
+
+    /** Runs the command ARGS, throwing a GitletException with the message to print if it fails. */
+    static void run(String[] args) {
         if (args.length == 0) {
             Repository.errorMessage("Please enter a command.");
             return;
@@ -19,8 +34,8 @@ public class Main {
                 Repository.init();
                 break;
             case "add":
-                if (args.length == 2) {
-                    Repository.add(args[1]);
+                if (args.length >= 2) {
+                    Repository.add(Arrays.copyOfRange(args, 1, args.length));
                 } else {
                     Repository.errorMessage("Not enough arguments.");
                 }
@@ -47,14 +62,16 @@ public class Main {
                 }
                 break;
             case "log":
-                Repository.log();
+                Repository.log(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "global-log":
-                Repository.global_log();
+                Repository.global_log(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "find":
                 if (args.length == 2) {
                     Repository.find(args[1]);
+                } else if (args.length == 3) {
+                    Repository.find(args[1], args[2]);
                 } else {
                     Repository.errorMessage("Not enough arguments.");
                 }
@@ -136,6 +153,21 @@ public class Main {
                     Repository.errorMessage("Not enough arguments.");
                 }
                 break;
+            case "repack":
+                Repository.repack();
+                break;
+            case "migrate":
+                Repository.migrate();
+                break;
+            case "watch":
+                Repository.watch();
+                break;
+            case "serve":
+                Repository.serve();
+                break;
+            case "batch":
+                Repository.batch();
+                break;
 
             default:
                 Repository.errorMessage("No command with that name exists.");
@@ -0,0 +1,610 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Represents the message index: an inverted index from commit messages to commits, so
+ * {@code find} looks commits up instead of reading every one of them.
+ * <p>
+ * Every commit is indexed under a key for its whole message (a 64-bit hash with the top bit set)
+ * and under a key for each trigram, each run of three bytes, of its UTF-8 message (the three bytes
+ * themselves). Commits are identified by their {@link CommitGraph} index. A search looks up or
+ * intersects the postings of its keys and then reads only those candidate commits to check them.
+ * <p>
+ * Two files hold the index. .gitlet/message-index is a sorted segment, memory-mapped and
+ * binary-searched:
+ * <pre>
+ *     int magic, int version, int covered, int keyCount, long keys[keyCount],
+ *     int offsets[keyCount + 1], int postings[]
+ * </pre>
+ * where the postings of keys[i] are postings[offsets[i]] up to postings[offsets[i + 1]], sorted,
+ * and covered is the number of commit-graph indexes it covers. .gitlet/message-log holds the
+ * commits indexed since, appended at commit time as {@code int commit, int keyCount, long keys[]};
+ * it is merged into a new segment once it is an eighth the size of the segment.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class MessageIndex {
+
+    public static final File SEGMENT_FILE = Utils.join(Repository.GITLET_DIR, "message-index");
+    public static final File LOG_FILE = Utils.join(Repository.GITLET_DIR, "message-log");
+
+    private static final int MAGIC = 0x474d4958;  // "GMIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    /** about 1024 commits of short messages */
+    private static final long MIN_LOG_BYTES = 256 * 1024;
+
+    /** the mapped segment, null until loaded or if there is none */
+    private static MappedByteBuffer segment = null;
+    private static int segmentCovered = 0;
+    private static int keyCount = 0;
+    /** key -> commits of the log, null until loaded */
+    private static Map<Long, IntList> log = null;
+    private static int logCovered = 0;
+    private static long logBytes = 0;
+
+    /**
+     * Adds a commit that was just saved to the index. Unless the index is already loaded, its record
+     * is appended to the log without reading the log back; if commits are missing before it, or it
+     * is already there, the next load drops the records from there on and indexes those commits
+     * again.
+     *
+     * @param index   The commit-graph index of the commit.
+     * @param message Its message.
+     */
+    public static void add(int index, String message) {
+        if (log == null) {
+            mapSegment();
+            if (index < segmentCovered) {
+                return;
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(LOG_FILE, true)))) {
+                writeRecord(out, index, keysOf(message));
+            } catch (IOException e) {
+                throw Utils.error("Error writing message index: %s", e.getMessage());
+            }
+            if (LOG_FILE.length() >= logLimit()) {
+                load();
+                catchUp(index + 1);
+                compactIfNeeded();
+            }
+            return;
+        }
+        if (index < covered()) {
+            return;
+        }
+        catchUp(index);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(LOG_FILE, true)))) {
+            appendToLog(out, index, message);
+        } catch (IOException e) {
+            throw Utils.error("Error writing message index: %s", e.getMessage());
+        }
+        compactIfNeeded();
+    }
+
+    /**
+     * Returns the commits whose message is exactly MESSAGE.
+     *
+     * @param message The message.
+     * @return Their names, sorted.
+     */
+    public static List<String> findExact(String message) {
+        load();
+        catchUp(CommitGraph.size());
+        return check(lookup(exactKey(message)), message::equals);
+    }
+
+    /**
+     * Returns the commits whose message contains TEXT.
+     *
+     * @param text The text to look for.
+     * @return Their names, sorted.
+     */
+    public static List<String> findContaining(String text) {
+        load();
+        catchUp(CommitGraph.size());
+        return check(candidates(Collections.singletonList(text)), m -> m.contains(text));
+    }
+
+    /**
+     * Returns the commits whose message contains a match of PATTERN. Only commits whose message
+     * contains every literal the pattern requires are read.
+     *
+     * @param pattern The regular expression.
+     * @return Their names, sorted.
+     */
+    public static List<String> findMatching(Pattern pattern) {
+        load();
+        catchUp(CommitGraph.size());
+        return check(candidates(requiredLiterals(pattern.pattern())), m -> pattern.matcher(m).find());
+    }
+
+    /**
+     * Deletes the index, for instance because the commit-graph indexes it refers to changed; it is
+     * rebuilt on next use.
+     */
+    public static void clear() {
+        unload();
+        SEGMENT_FILE.delete();
+        LOG_FILE.delete();
+    }
+
+    /**
+     * Forgets the loaded index so it is read again on next use.
+     */
+    public static void unload() {
+        segment = null;
+        segmentCovered = 0;
+        keyCount = 0;
+        log = null;
+        logCovered = 0;
+        logBytes = 0;
+    }
+
+    private static int covered() {
+        return segmentCovered + logCovered;
+    }
+
+    /** Indexes the commits from covered() up to END, exclusive. */
+    private static void catchUp(int end) {
+        while (covered() < end) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(LOG_FILE, true)))) {
+                while (covered() < end && logBytes < logLimit()) {
+                    int i = covered();
+                    appendToLog(out, i, Commit.getCommitHeader(CommitGraph.idAt(i)).getMessage());
+                }
+            } catch (IOException e) {
+                throw Utils.error("Error writing message index: %s", e.getMessage());
+            }
+            compactIfNeeded();
+        }
+    }
+
+    private static void appendToLog(DataOutputStream out, int index, String message) throws IOException {
+        long[] keys = keysOf(message);
+        logBytes += writeRecord(out, index, keys);
+        for (long key : keys) {
+            log.computeIfAbsent(key, k -> new IntList()).add(index);
+        }
+        logCovered++;
+    }
+
+    /** Writes a log record and returns its length. */
+    private static long writeRecord(DataOutputStream out, int index, long[] keys) throws IOException {
+        out.writeInt(index);
+        out.writeInt(keys.length);
+        for (long key : keys) {
+            out.writeLong(key);
+        }
+        return 8 + 8L * keys.length;
+    }
+
+    /** Size in bytes the log may reach before it is merged: an eighth of the segment. */
+    private static long logLimit() {
+        return Math.max(MIN_LOG_BYTES, segment == null ? 0 : segment.capacity() / 8);
+    }
+
+    /** Merges the log into a new segment once it is large enough. */
+    private static void compactIfNeeded() {
+        if (logBytes < logLimit()) {
+            return;
+        }
+        TreeMap<Long, IntList> pending = new TreeMap<>(log);
+        File tmp = new File(SEGMENT_FILE.getParentFile(), SEGMENT_FILE.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            // merge the sorted keys of the segment with the sorted keys of the log
+            List<Long> keys = new ArrayList<>();
+            int i = 0;
+            Iterator<Map.Entry<Long, IntList>> logKeys = pending.entrySet().iterator();
+            Map.Entry<Long, IntList> next = logKeys.hasNext() ? logKeys.next() : null;
+            while (i < keyCount || next != null) {
+                if (next == null || (i < keyCount && keyAt(i) < next.getKey())) {
+                    keys.add(keyAt(i++));
+                } else {
+                    if (i < keyCount && keyAt(i) == next.getKey()) {
+                        i++;
+                    }
+                    keys.add(next.getKey());
+                    next = logKeys.hasNext() ? logKeys.next() : null;
+                }
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(covered());
+            out.writeInt(keys.size());
+            for (long key : keys) {
+                out.writeLong(key);
+            }
+            int offset = 0;
+            out.writeInt(offset);
+            for (long key : keys) {
+                IntList fromLog = pending.get(key);
+                offset += segmentPostings(key).length + (fromLog == null ? 0 : fromLog.size);
+                out.writeInt(offset);
+            }
+            // log commits all come after segment commits, so appending keeps postings sorted
+            for (long key : keys) {
+                for (int commit : segmentPostings(key)) {
+                    out.writeInt(commit);
+                }
+                IntList fromLog = pending.get(key);
+                if (fromLog != null) {
+                    for (int j = 0; j < fromLog.size; j++) {
+                        out.writeInt(fromLog.values[j]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw Utils.error("Error writing message index: %s", e.getMessage());
+        }
+        if (!tmp.renameTo(SEGMENT_FILE)) {
+            tmp.delete();
+            throw Utils.error("Could not install message index.");
+        }
+        LOG_FILE.delete();
+        unload();
+        load();
+    }
+
+    /** Returns the sorted commits under KEY, from the segment and the log. */
+    private static int[] lookup(long key) {
+        int[] fromSegment = segmentPostings(key);
+        IntList fromLog = log.get(key);
+        if (fromLog == null) {
+            return fromSegment;
+        }
+        int[] result = Arrays.copyOf(fromSegment, fromSegment.length + fromLog.size);
+        System.arraycopy(fromLog.values, 0, result, fromSegment.length, fromLog.size);
+        return result;
+    }
+
+    /**
+     * Returns the commits whose message may contain every one of LITERALS: the intersection of the
+     * postings of their trigrams, or every commit if they have none.
+     */
+    private static int[] candidates(List<String> literals) {
+        int[] result = null;
+        for (String literal : literals) {
+            for (long key : trigrams(literal.getBytes(StandardCharsets.UTF_8))) {
+                result = result == null ? lookup(key) : intersect(result, lookup(key));
+                if (result.length == 0) {
+                    return result;
+                }
+            }
+        }
+        if (result == null) {
+            result = new int[covered()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = i;
+            }
+        }
+        return result;
+    }
+
+    /** Reads the messages of CANDIDATES and returns the names of those that pass TEST, sorted. */
+    private static List<String> check(int[] candidates, Predicate<String> test) {
+        List<String> names = new ArrayList<>();
+        for (int candidate : candidates) {
+            String name = CommitGraph.idAt(candidate);
+            if (test.test(Commit.getCommitHeader(name).getMessage())) {
+                names.add(name);
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private static long[] keysOf(String message) {
+        Set<Long> keys = new TreeSet<>();
+        keys.add(exactKey(message));
+        keys.addAll(trigrams(message.getBytes(StandardCharsets.UTF_8)));
+        long[] result = new long[keys.size()];
+        int i = 0;
+        for (long key : keys) {
+            result[i++] = key;
+        }
+        return result;
+    }
+
+    private static Set<Long> trigrams(byte[] bytes) {
+        Set<Long> result = new TreeSet<>();
+        for (int i = 0; i + 2 < bytes.length; i++) {
+            result.add((long) ((bytes[i] & 0xff) << 16 | (bytes[i + 1] & 0xff) << 8 | (bytes[i + 2] & 0xff)));
+        }
+        return result;
+    }
+
+    /** 64-bit FNV-1a hash of the message, with the top bit set so it never collides with a trigram. */
+    private static long exactKey(String message) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : message.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash | Long.MIN_VALUE;
+    }
+
+    /**
+     * Returns literal strings every match of a regular expression must contain. Only the top level
+     * of a pattern without alternation is looked at; anything not understood contributes nothing,
+     * which only means more candidates are checked.
+     */
+    static List<String> requiredLiterals(String regex) {
+        List<String> literals = new ArrayList<>();
+        if (regex.contains("|") || regex.contains("(?")) {
+            return literals;
+        }
+        StringBuilder current = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                char escaped = regex.charAt(i + 1);
+                if (!Character.isLetterOrDigit(escaped)) {
+                    i++;
+                    if (depth == 0) {
+                        current.append(escaped);
+                    }
+                } else {
+                    // a class, an assertion, a code point or a back reference: not text we know
+                    flush(current, literals);
+                    i = endOfEscape(regex, i) - 1;
+                }
+            } else if (c == '(') {
+                flush(current, literals);
+                depth++;
+            } else if (c == ')') {
+                depth = Math.max(0, depth - 1);
+            } else if (c == '[') {
+                flush(current, literals);
+                i = endOfClass(regex, i) - 1;
+                if (i < 0) {
+                    return literals;
+                }
+            } else if (c == '?' || c == '*' || c == '{') {
+                // the previous character is optional
+                if (current.length() > 0) {
+                    current.setLength(current.length() - 1);
+                }
+                flush(current, literals);
+                if (c == '{') {
+                    i = Math.max(i, regex.indexOf('}', i));
+                }
+            } else if (c == '+' || c == '.' || c == '^' || c == '$') {
+                flush(current, literals);
+            } else if (depth == 0) {
+                current.append(c);
+            }
+        }
+        flush(current, literals);
+        return literals;
+    }
+
+    /**
+     * Returns the position just after the escape sequence starting with the backslash at FROM and
+     * followed by a letter or digit: a code point such as {@code \xhh}, {@code \x{h...}} or
+     * {@code \0ooo}, {@code \cX}, {@code \k<name>}, {@code \p{name}}, {@code \N{name}},
+     * {@code \Q...\E}, a back reference such as {@code \12}, or a single letter such as {@code \d}.
+     */
+    private static int endOfEscape(String regex, int from) {
+        int i = from + 1;
+        char c = regex.charAt(i++);
+        switch (c) {
+            case 'x':
+                if (i < regex.length() && regex.charAt(i) == '{') {
+                    return closing(regex, i, '}');
+                }
+                return Math.min(regex.length(), i + 2);
+            case 'u':
+                return Math.min(regex.length(), i + 4);
+            case '0':
+                for (int n = 0; n < 3 && i < regex.length() && regex.charAt(i) >= '0' && regex.charAt(i) <= '7'; n++) {
+                    i++;
+                }
+                return i;
+            case 'c':
+                return Math.min(regex.length(), i + 1);
+            case 'k':
+                return i < regex.length() && regex.charAt(i) == '<' ? closing(regex, i, '>') : i;
+            case 'p':
+            case 'P':
+            case 'N':
+                if (i < regex.length() && regex.charAt(i) == '{') {
+                    return closing(regex, i, '}');
+                }
+                return Math.min(regex.length(), i + 1);
+            case 'Q':
+                int end = regex.indexOf("\\E", i);
+                return end < 0 ? regex.length() : end + 2;
+            default:
+                if (c >= '1' && c <= '9') {
+                    while (i < regex.length() && Character.isDigit(regex.charAt(i))) {
+                        i++;
+                    }
+                }
+                return i;
+        }
+    }
+
+    /** Returns the position just after the first CLOSE at or after FROM, or the end of REGEX. */
+    private static int closing(String regex, int from, char close) {
+        int end = regex.indexOf(close, from);
+        return end < 0 ? regex.length() : end + 1;
+    }
+
+    /**
+     * Returns the position just after the character class starting with the bracket at FROM, or 0
+     * if it is not closed. A ']' right after '[' or '[^' belongs to the class, and classes may nest.
+     */
+    private static int endOfClass(String regex, int from) {
+        int depth = 0;
+        int i = from;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '[') {
+                depth++;
+                i++;
+                if (i < regex.length() && regex.charAt(i) == '^') {
+                    i++;
+                }
+                if (i < regex.length() && regex.charAt(i) == ']') {
+                    i++;
+                }
+            } else if (c == '\\') {
+                i += 2;
+            } else if (c == ']') {
+                i++;
+                if (--depth == 0) {
+                    return i;
+                }
+            } else {
+                i++;
+            }
+        }
+        return 0;
+    }
+
+    private static void flush(StringBuilder current, List<String> literals) {
+        if (current.length() > 0) {
+            literals.add(current.toString());
+            current.setLength(0);
+        }
+    }
+
+    private static long keyAt(int i) {
+        return segment.getLong(HEADER_BYTES + i * 8);
+    }
+
+    private static int[] segmentPostings(long key) {
+        int low = 0;
+        int high = keyCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long k = keyAt(mid);
+            if (k < key) {
+                low = mid + 1;
+            } else if (k > key) {
+                high = mid - 1;
+            } else {
+                int offsets = HEADER_BYTES + keyCount * 8;
+                int from = segment.getInt(offsets + mid * 4);
+                int to = segment.getInt(offsets + (mid + 1) * 4);
+                int postings = offsets + (keyCount + 1) * 4;
+                int[] result = new int[to - from];
+                for (int j = 0; j < result.length; j++) {
+                    result[j] = segment.getInt(postings + (from + j) * 4);
+                }
+                return result;
+            }
+        }
+        return new int[0];
+    }
+
+    private static void load() {
+        if (log != null) {
+            return;
+        }
+        mapSegment();
+        log = new HashMap<>();
+        if (!LOG_FILE.exists()) {
+            return;
+        }
+        // length of the records that were read back
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(LOG_FILE)))) {
+            while (true) {
+                int index = in.readInt();
+                int count = in.readInt();
+                long[] keys = new long[count];
+                for (int i = 0; i < count; i++) {
+                    keys[i] = in.readLong();
+                }
+                if (index != covered()) {
+                    break;
+                }
+                for (long key : keys) {
+                    log.computeIfAbsent(key, k -> new IntList()).add(index);
+                }
+                logCovered++;
+                valid += 8 + 8L * count;
+            }
+        } catch (EOFException e) {
+            // end of the log, or a record cut short by a crash
+        } catch (IOException e) {
+            throw Utils.error("Error reading message index: %s", e.getMessage());
+        }
+        logBytes = valid;
+        if (LOG_FILE.length() != valid) {
+            // drop what could not be read, so new records are appended after the last good one
+            try (RandomAccessFile raf = new RandomAccessFile(LOG_FILE, "rw")) {
+                raf.setLength(valid);
+            } catch (IOException e) {
+                throw Utils.error("Error writing message index: %s", e.getMessage());
+            }
+        }
+    }
+
+    private static void mapSegment() {
+        if (segment != null || !SEGMENT_FILE.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(SEGMENT_FILE, "r")) {
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } catch (IOException e) {
+            throw Utils.error("Error reading message index: %s", e.getMessage());
+        }
+        if (segment.getInt(0) != MAGIC || segment.getInt(4) != VERSION) {
+            segment = null;
+            throw Utils.error("Corrupt message index.");
+        }
+        segmentCovered = segment.getInt(8);
+        keyCount = segment.getInt(12);
+    }
+
+    /** A growable list of ints. */
+    private static class IntList {
+        int[] values = new int[4];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents the object cache: decoded commits and trees, and the contents of small blobs, kept
+ * in memory so a command that looks at the same object several times reads and decodes it once.
+ * <p>
+ * Objects are kept by type and id, which never change meaning, so nothing cached goes stale;
+ * the only object rewritten in place, a commit upgraded by {@link Commit#rewriteTrackedFiles(Map)},
+ * is dropped with {@link #remove(String, String)}. Every object has an estimated weight in bytes,
+ * and once the total passes {@link #MAX_WEIGHT} the least recently used objects are evicted.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class ObjectCache {
+
+    /** most bytes of objects kept */
+    public static final long MAX_WEIGHT = 32L * 1024 * 1024;
+    /** objects heavier than this are not kept, so one large blob cannot flush everything else */
+    public static final long MAX_OBJECT_WEIGHT = MAX_WEIGHT / 16;
+
+    /** "type id" -> object, least recently used first */
+    private static final LinkedHashMap<String, Cached> objects = new LinkedHashMap<>(256, 0.75f, true);
+    private static long weight = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+
+    /**
+     * Looks up an object.
+     *
+     * @param type The type of the object, one of {@link ObjectStore#COMMIT}, {@link ObjectStore#TREE}
+     *             and {@link ObjectStore#BLOB}.
+     * @param id   The id of the object.
+     * @return The cached object, or null if it is not cached.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String type, String id) {
+        Cached cached = objects.get(key(type, id));
+        if (cached == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return (T) cached.value;
+    }
+
+    /**
+     * Keeps an object, evicting the least recently used ones if the cache grows too heavy.
+     *
+     * @param type   The type of the object.
+     * @param id     The id of the object.
+     * @param value  The object; it must not be changed afterwards.
+     * @param weight Its estimated size in bytes.
+     */
+    public static void put(String type, String id, Object value, long weight) {
+        if (weight > MAX_OBJECT_WEIGHT) {
+            return;
+        }
+        Cached old = objects.put(key(type, id), new Cached(value, weight));
+        ObjectCache.weight += weight - (old == null ? 0 : old.weight);
+        Iterator<Cached> eldest = objects.values().iterator();
+        while (ObjectCache.weight > MAX_WEIGHT && eldest.hasNext()) {
+            ObjectCache.weight -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops an object, for instance because it was rewritten.
+     *
+     * @param type The type of the object.
+     * @param id   The id of the object.
+     */
+    public static void remove(String type, String id) {
+        Cached old = objects.remove(key(type, id));
+        if (old != null) {
+            weight -= old.weight;
+        }
+    }
+
+    /**
+     * Drops every object and resets the counters.
+     */
+    public static void clear() {
+        objects.clear();
+        weight = 0;
+        hits = 0;
+        misses = 0;
+    }
+
+    /** Returns how many lookups found their object. */
+    public static long hits() {
+        return hits;
+    }
+
+    /** Returns how many lookups did not find their object. */
+    public static long misses() {
+        return misses;
+    }
+
+    /** Returns the estimated size in bytes of the objects kept. */
+    public static long weight() {
+        return weight;
+    }
+
+    private static String key(String type, String id) {
+        return type + " " + id;
+    }
+
+    private static class Cached {
+        final Object value;
+        final long weight;
+
+        Cached(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
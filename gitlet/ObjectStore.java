@@ -0,0 +1,346 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads and writes loose objects.
+ * A loose object is a zlib stream of a header "TYPE SIZE\0" followed by the SIZE bytes of the
+ * object, so objects are both compressed on disk and self-describing. Objects written before this
+ * format existed hold their raw contents; they are still readable, and {@link #migrate()} rewrites
+ * them in the compressed format.
+ * <p>
+ * An object is written under a temporary name in its shard and renamed into place once complete,
+ * so an object file that exists always holds the whole object.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class ObjectStore {
+
+    public static final String BLOB = "blob";
+    public static final String COMMIT = "commit";
+    public static final String TREE = "tree";
+
+    /** Number of hex digits of an id used to name its shard directory. */
+    private static final int SHARD_DIGITS = 2;
+    /** Longest header we are prepared to parse. */
+    private static final int MAX_HEADER = 32;
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Resolves the file of an object. Objects live in 256 shard directories named after the first
+     * two hex digits of their id (DIR/ab/cdef...), so no directory grows with the object count.
+     * Objects of older repositories that still sit directly in DIR are found there until they are
+     * migrated.
+     *
+     * @param dir The object directory: {@link Repository#COMMIT_DIR}, {@link Repository#TREES_DIR}
+     *            or {@link Repository#BLOBS_DIR}.
+     * @param id  The SHA-1 name of the object.
+     * @return The existing file of the object, or the sharded path where a new object is written.
+     */
+    public static File objectFile(File dir, String id) {
+        if (id.length() <= SHARD_DIGITS) {
+            return new File(dir, id);
+        }
+        File sharded = shardedFile(dir, id);
+        if (!sharded.exists()) {
+            File legacy = new File(dir, id);
+            if (legacy.isFile()) {
+                return legacy;
+            }
+        }
+        return sharded;
+    }
+
+    /**
+     * Returns the names of all loose objects in an object directory.
+     *
+     * @param dir The object directory.
+     * @return The SHA-1 names, sorted.
+     */
+    public static List<String> list(File dir) {
+        List<String> names = new ArrayList<>();
+        File[] shards = dir.listFiles(f -> f.isDirectory() && f.getName().length() == SHARD_DIGITS);
+        if (shards != null) {
+            Arrays.sort(shards);
+            for (File shard : shards) {
+                for (String rest : Utils.plainFilenamesIn(shard)) {
+                    if (rest.length() == Utils.UID_LENGTH - SHARD_DIGITS) {
+                        names.add(shard.getName() + rest);
+                    }
+                }
+            }
+        }
+        List<String> legacy = Utils.plainFilenamesIn(dir);
+        if (legacy != null && !legacy.isEmpty()) {
+            Set<String> all = new TreeSet<>(names);
+            for (String name : legacy) {
+                if (name.length() == Utils.UID_LENGTH) {
+                    all.add(name);
+                }
+            }
+            return new ArrayList<>(all);
+        }
+        return names;
+    }
+
+    /**
+     * Writes CONTENTS as a compressed object of the given TYPE.
+     *
+     * @param file     The loose object file to create.
+     * @param type     {@link #BLOB}, {@link #COMMIT} or {@link #TREE}.
+     * @param contents The contents of the object.
+     */
+    public static void write(File file, String type, byte[] contents) {
+        File tmp = Durability.temporaryFile(file);
+        try (OutputStream out = openForWrite(tmp, type, contents.length)) {
+            out.write(contents);
+        } catch (IOException e) {
+            tmp.delete();
+            throw Utils.error("Error writing object %s: %s", file.getName(), e.getMessage());
+        }
+        Durability.install(tmp, file);
+    }
+
+    /**
+     * Replaces the contents of an existing object. Like every write, the new object is written next
+     * to it and renamed over it, so readers see either the old or the new object, never a partial one.
+     *
+     * @param file     The loose object file to replace.
+     * @param type     {@link #BLOB} or {@link #COMMIT}.
+     * @param contents The new contents of the object.
+     */
+    public static void replace(File file, String type, byte[] contents) {
+        write(file, type, contents);
+    }
+
+    /**
+     * Streams the contents of SOURCE into a compressed object of the given TYPE, without holding
+     * the whole file in memory.
+     *
+     * @param file   The loose object file to create.
+     * @param type   {@link #BLOB} or {@link #COMMIT}.
+     * @param source The file whose contents are stored.
+     */
+    public static void write(File file, String type, File source) {
+        install(writeTemporary(file.getParentFile(), type, source, null), file);
+    }
+
+    /**
+     * Streams the contents of SOURCE into a compressed object of the given TYPE under a temporary
+     * name, in a single pass that also feeds them to DIGEST, so the id computed from the digest
+     * names exactly the bytes that were stored. The header holds the size of SOURCE when it is
+     * opened; if a different number of bytes is read, the file changed while it was being stored
+     * and nothing is kept.
+     *
+     * @param dir    The directory to write the temporary file in.
+     * @param type   {@link #BLOB} or {@link #COMMIT}.
+     * @param source The file whose contents are stored.
+     * @param digest A digest to feed the contents to, or null.
+     * @return The written temporary file, to be moved into place by {@link #install(File, File)}.
+     */
+    public static File writeTemporary(File dir, String type, File source, MessageDigest digest) {
+        File tmp = Durability.temporaryFile(new File(dir, "object"));
+        try (FileInputStream in = new FileInputStream(source)) {
+            long size = in.getChannel().size();
+            long copied = 0;
+            try (OutputStream out = openForWrite(tmp, type, size)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, n);
+                    if (digest != null) {
+                        digest.update(buffer, 0, n);
+                    }
+                    copied += n;
+                }
+            }
+            if (copied != size) {
+                throw new IOException("file changed while it was being stored");
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw Utils.error("Error storing %s: %s", source.getName(), e.getMessage());
+        }
+        return tmp;
+    }
+
+    /**
+     * Moves an object written by {@link #writeTemporary} into place.
+     *
+     * @param tmp  The written temporary file.
+     * @param file The loose object file to create.
+     */
+    public static void install(File tmp, File file) {
+        file.getParentFile().mkdirs();
+        Durability.install(tmp, file);
+    }
+
+    /**
+     * Reads the contents of a loose object.
+     *
+     * @param file The loose object file.
+     * @return The contents of the object, without its header.
+     */
+    public static byte[] read(File file) {
+        try (InputStream in = open(file)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw Utils.error("Error reading object %s: %s", file.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Streams the contents of a loose object into DEST.
+     *
+     * @param file The loose object file.
+     * @param dest The file to create or overwrite.
+     */
+    public static void copyTo(File file, File dest) {
+        if (!isCompressed(file)) {
+            // a legacy object holds the raw contents, which the file system can copy as they are
+            try {
+                Files.copy(file.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw Utils.error("Error reading object %s: %s", file.getName(), e.getMessage());
+            }
+            return;
+        }
+        try (InputStream in = open(file);
+             OutputStream out = new FileOutputStream(dest)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            throw Utils.error("Error reading object %s: %s", file.getName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the size of the contents of a loose object, reading no more than its header.
+     *
+     * @param file The loose object file.
+     * @return The size of the contents in bytes.
+     */
+    public static long sizeOf(File file) {
+        try (InflaterInputStream in = new InflaterInputStream(new FileInputStream(file))) {
+            String header = readHeader(in);
+            if (header != null) {
+                return Long.parseLong(header.substring(header.indexOf(' ') + 1));
+            }
+        } catch (IOException e) {
+            // legacy object, stored raw
+        }
+        return file.length();
+    }
+
+    /**
+     * Checks whether a loose object is stored in the compressed format.
+     *
+     * @param file The loose object file.
+     * @return True if the file starts with a valid compressed header.
+     */
+    public static boolean isCompressed(File file) {
+        try (InflaterInputStream in = new InflaterInputStream(new FileInputStream(file))) {
+            return readHeader(in) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rewrites every loose object of an older repository in the current layout: objects still stored
+     * raw are compressed, and objects still sitting directly in their object directory are moved into
+     * their shard. Objects keep their names, so nothing that refers to them has to change.
+     */
+    public static void migrate() {
+        migrateDirectory(Repository.COMMIT_DIR, COMMIT);
+        migrateDirectory(Repository.BLOBS_DIR, BLOB);
+    }
+
+    private static void migrateDirectory(File dir, String type) {
+        for (String name : list(dir)) {
+            File file = objectFile(dir, name);
+            File target = shardedFile(dir, name);
+            boolean compressed = isCompressed(file);
+            if (file.equals(target) && compressed) {
+                continue;
+            }
+            if (!compressed) {
+                write(target, type, file);
+            } else {
+                target.getParentFile().mkdirs();
+                if (!file.renameTo(target)) {
+                    throw Utils.error("Could not migrate object %s.", name);
+                }
+            }
+            if (!file.equals(target)) {
+                file.delete();
+            }
+        }
+    }
+
+    private static File shardedFile(File dir, String id) {
+        return Utils.join(dir, id.substring(0, SHARD_DIGITS), id.substring(SHARD_DIGITS));
+    }
+
+    /**
+     * Opens a stream over the contents of a loose object, skipping its header, so a reader can
+     * stop after the part of the object it needs.
+     *
+     * @param file The loose object file.
+     * @return A stream positioned at the first byte of the contents.
+     */
+    public static InputStream open(File file) throws IOException {
+        InflaterInputStream in = new InflaterInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (readHeader(in) != null) {
+                return in;
+            }
+        } catch (IOException e) {
+            // not compressed
+        }
+        in.close();
+        return new BufferedInputStream(new FileInputStream(file));
+    }
+
+    private static OutputStream openForWrite(File file, String type, long size) throws IOException {
+        file.getParentFile().mkdirs();
+        OutputStream out = new DeflaterOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        out.write((type + " " + size + "\0").getBytes(StandardCharsets.UTF_8));
+        return out;
+    }
+
+    /** Reads "TYPE SIZE\0" from IN, returning "TYPE SIZE", or null if IN does not start with a valid header. */
+    private static String readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        for (int i = 0; i < MAX_HEADER; i++) {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            if (b == 0) {
+                String result = header.toString(StandardCharsets.UTF_8);
+                return result.matches("(" + BLOB + "|" + COMMIT + "|" + TREE + ") \\d+") ? result : null;
+            }
+            header.write(b);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,644 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Represents a gitlet pack: many objects stored in one data file, plus a sorted index.
+ * Objects inside a pack are either stored whole or as a {@link Delta} against another
+ * object of the same pack, which keeps the inode count down and stores a file that
+ * changed by one line as little more than that line.
+ * <p>
+ * The data file (pack-SHA.pack) is {@code int magic, int version, int count} and a sequence of entries
+ * <pre>
+ *     byte type, byte encoding, [20 byte base id when encoding is DELTA], int size, int length, byte[length] data
+ * </pre>
+ * where size is the size of the object and data is the object or its delta, zlib-compressed like
+ * a loose object when the encoding has the DEFLATED bit and that makes it smaller, and stored as
+ * it is otherwise (packs of version 1 have neither the DEFLATED bit nor the size), and the index
+ * (pack-SHA.idx) is
+ * <pre>
+ *     int magic, int version, int fanout[256], byte ids[n][20], byte types[n], long offsets[n]
+ * </pre>
+ * where ids are sorted and fanout[b] is the number of ids whose first byte is at most b, so a
+ * lookup is a binary search over a single fan-out bucket.
+ * <p>
+ * The index is mapped whole. The data file is not, as a pack can grow past the 2 GiB a single
+ * mapping can hold: each entry is read at its long offset, and compressed data is inflated from a
+ * mapping of that entry alone.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class PackFile {
+
+    // Directory for storing packs
+    public static final File PACK_DIRECTORY = Repository.PACKS_DIR;
+
+    public static final byte COMMIT = 1;
+    public static final byte BLOB = 2;
+    public static final byte TREE = 3;
+
+    private static final int PACK_MAGIC = 0x4750434b;   // "GPCK"
+    private static final int INDEX_MAGIC = 0x47494458;  // "GIDX"
+    private static final int VERSION = 1;
+    private static final int DATA_VERSION = 2;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+    private static final int HEADER_BYTES = 8 + 256 * 4;
+
+    private static final byte FULL = 0;
+    private static final byte DELTA = 1;
+    /** set in the encoding of entries whose data is compressed */
+    private static final byte DEFLATED = 2;
+    /** How many preceding objects are tried as a delta base. */
+    private static final int WINDOW = 10;
+    /** Longest chain of deltas that has to be followed to rebuild an object. */
+    private static final int MAX_DEPTH = 10;
+
+    /** packs of this repository, loaded on first use */
+    private static List<PackFile> packs = null;
+
+    private final File dataFile;
+    private final File indexFile;
+    private final FileChannel data;
+    private final MappedByteBuffer index;
+    private final int count;
+    private final int dataVersion;
+
+    private PackFile(File indexFile) throws IOException {
+        this.indexFile = indexFile;
+        String name = indexFile.getName();
+        this.dataFile = new File(indexFile.getParentFile(), name.substring(0, name.length() - 4) + ".pack");
+        this.index = map(indexFile);
+        this.data = FileChannel.open(dataFile.toPath(), StandardOpenOption.READ);
+        ByteBuffer header = readAt(0, 8);
+        if (index.getInt(0) != INDEX_MAGIC || header.getInt(0) != PACK_MAGIC) {
+            data.close();
+            throw Utils.error("Corrupt pack %s.", name);
+        }
+        this.count = index.getInt(8 + 255 * 4);
+        this.dataVersion = header.getInt(4);
+        if (dataVersion < VERSION || dataVersion > DATA_VERSION) {
+            data.close();
+            throw Utils.error("Unsupported pack version %d in %s.", dataVersion, name);
+        }
+    }
+
+    /**
+     * Checks whether an object is stored in any pack.
+     *
+     * @param id The SHA-1 name of the object.
+     * @return True if some pack contains the object.
+     */
+    public static boolean contains(String id) {
+        for (PackFile pack : getPacks()) {
+            if (pack.find(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the contents of a packed object, resolving deltas.
+     *
+     * @param id The SHA-1 name of the object.
+     * @return The contents of the object, or null if no pack contains it.
+     */
+    public static byte[] read(String id) {
+        for (PackFile pack : getPacks()) {
+            int position = pack.find(id);
+            if (position >= 0) {
+                return pack.readEntry(pack.offsetAt(position));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the contents of a packed object into a file. An object stored whole is copied from the
+     * pack by the kernel with {@link FileChannel#transferTo}, without passing through the heap; a
+     * delta is applied in memory first.
+     *
+     * @param id   The SHA-1 name of the object.
+     * @param dest The file to create or overwrite.
+     * @return True if a pack holds the object.
+     */
+    public static boolean writeTo(String id, File dest) {
+        for (PackFile pack : getPacks()) {
+            int position = pack.find(id);
+            if (position >= 0) {
+                pack.writeEntry(pack.offsetAt(position), dest);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the names of all packed objects of the given type.
+     *
+     * @param type {@link #COMMIT}, {@link #TREE} or {@link #BLOB}.
+     * @return The SHA-1 names, sorted.
+     */
+    public static List<String> list(byte type) {
+        Set<String> names = new TreeSet<>();
+        for (PackFile pack : getPacks()) {
+            for (int i = 0; i < pack.count; i++) {
+                if (pack.typeAt(i) == type) {
+                    names.add(pack.idAt(i));
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * Packs every commit of the repository and every tree and blob a commit refers to, loose or
+     * already packed, into a single new pack and removes the loose files and the old packs.
+     * Objects are sorted so that similar ones end up next to each other (trees and blobs by the path
+     * they are tracked under, then by size), and each object is stored as a delta against whichever of
+     * the previous {@link #WINDOW} objects of the same type gives the smallest delta, if any gives a
+     * delta smaller than half of the object.
+     */
+    public static void repack() {
+        Map<String, String> treeNames = new HashMap<>();
+        Map<String, String> blobNames = new HashMap<>();
+        List<PackedObject> objects = new ArrayList<>();
+        for (String id : Commit.getAllCommitNames()) {
+            collectTree(Commit.getCommitHeader(id).getTree(), "", treeNames, blobNames);
+            objects.add(new PackedObject(id, COMMIT, "", sizeOf(id, COMMIT)));
+        }
+        // staged blobs are not reachable from any commit yet
+        for (Map.Entry<String, Index.Entry> entry : Index.entries().entrySet()) {
+            blobNames.putIfAbsent(entry.getValue().blob, entry.getKey());
+        }
+        for (Map.Entry<String, String> tree : treeNames.entrySet()) {
+            objects.add(new PackedObject(tree.getKey(), TREE, tree.getValue(), sizeOf(tree.getKey(), TREE)));
+        }
+        for (Map.Entry<String, String> blob : blobNames.entrySet()) {
+            objects.add(new PackedObject(blob.getKey(), BLOB, blob.getValue(), sizeOf(blob.getKey(), BLOB)));
+        }
+        if (objects.isEmpty()) {
+            return;
+        }
+        objects.sort(Comparator.comparing((PackedObject o) -> o.type)
+                .thenComparing(o -> o.nameHint)
+                .thenComparing(o -> -o.size)
+                .thenComparing(o -> o.id));
+
+        PACK_DIRECTORY.mkdirs();
+        File tmpData = new File(PACK_DIRECTORY, "tmp-pack");
+        File tmpIndex = new File(PACK_DIRECTORY, "tmp-idx");
+        try {
+            writeData(tmpData, objects);
+            String name = "pack-" + writeIndex(tmpIndex, objects);
+            File dataFile = new File(PACK_DIRECTORY, name + ".pack");
+            File indexFile = new File(PACK_DIRECTORY, name + ".idx");
+            List<PackFile> old = getPacks();
+            unload();
+            // the index last: a pack is only found through its index
+            Durability.install(tmpData, dataFile);
+            Durability.install(tmpIndex, indexFile);
+            for (PackFile pack : old) {
+                if (!pack.dataFile.equals(dataFile)) {
+                    pack.dataFile.delete();
+                    pack.indexFile.delete();
+                }
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error writing pack: %s", e.getMessage());
+        }
+        // the pack must be on disk before the loose copies of its objects go
+        Durability.flush();
+        for (PackedObject object : objects) {
+            File dir = directoryOf(object.type);
+            File loose = ObjectStore.objectFile(dir, object.id);
+            loose.delete();
+            if (!loose.getParentFile().equals(dir)) {
+                // drop the shard directory once it is empty
+                loose.getParentFile().delete();
+            }
+        }
+    }
+
+    private static void writeData(File file, List<PackedObject> objects) throws IOException {
+        Deque<PackedObject> window = new ArrayDeque<>();
+        long offset = 12;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(DATA_VERSION);
+            out.writeInt(objects.size());
+            for (PackedObject object : objects) {
+                if (!window.isEmpty() && window.peekLast().type != object.type) {
+                    window.clear();
+                }
+                object.contents = readLoose(object.id, object.type);
+                PackedObject base = null;
+                byte[] best = null;
+                for (PackedObject candidate : window) {
+                    if (candidate.depth >= MAX_DEPTH) {
+                        continue;
+                    }
+                    byte[] delta = Delta.create(candidate.contents, object.contents);
+                    if (delta.length < object.contents.length / 2 && (best == null || delta.length < best.length)) {
+                        best = delta;
+                        base = candidate;
+                    }
+                }
+                if (base == null) {
+                    best = object.contents;
+                }
+                byte[] deflated = deflate(best);
+                boolean compressed = deflated.length < best.length;
+                byte[] stored = compressed ? deflated : best;
+                object.offset = offset;
+                out.writeByte(object.type);
+                out.writeByte((base == null ? FULL : DELTA) | (compressed ? DEFLATED : 0));
+                offset += 2;
+                if (base != null) {
+                    out.write(Utils.fromHex(base.id));
+                    object.depth = base.depth + 1;
+                    offset += ID_BYTES;
+                }
+                out.writeInt(object.contents.length);
+                out.writeInt(stored.length);
+                out.write(stored);
+                offset += 8 + stored.length;
+
+                window.addLast(object);
+                if (window.size() > WINDOW) {
+                    window.removeFirst().contents = null;
+                }
+            }
+        }
+        for (PackedObject object : window) {
+            object.contents = null;
+        }
+    }
+
+    /** Writes the index of OBJECTS to FILE and returns the name of the pack. */
+    private static String writeIndex(File file, List<PackedObject> objects) throws IOException {
+        List<PackedObject> sorted = new ArrayList<>(objects);
+        sorted.sort(Comparator.comparing(o -> o.id));
+        int[] fanout = new int[256];
+        for (PackedObject object : sorted) {
+            fanout[Integer.parseInt(object.id.substring(0, 2), 16)]++;
+        }
+        for (int i = 1; i < 256; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            for (int n : fanout) {
+                out.writeInt(n);
+            }
+            for (PackedObject object : sorted) {
+                out.write(Utils.fromHex(object.id));
+            }
+            for (PackedObject object : sorted) {
+                out.writeByte(object.type);
+            }
+            for (PackedObject object : sorted) {
+                out.writeLong(object.offset);
+            }
+        }
+        List<Object> ids = new ArrayList<>();
+        for (PackedObject object : sorted) {
+            ids.add(object.id);
+        }
+        return Utils.sha1(ids);
+    }
+
+    /** Records the path of a tree and of everything below it, unless the tree was seen before. */
+    private static void collectTree(String id, String path, Map<String, String> treeNames,
+                                    Map<String, String> blobNames) {
+        if (treeNames.putIfAbsent(id, path) != null) {
+            return;
+        }
+        for (Map.Entry<String, String> child : Tree.children(id).entrySet()) {
+            if (child.getKey().endsWith("/")) {
+                collectTree(child.getValue(), path + child.getKey(), treeNames, blobNames);
+            } else {
+                blobNames.putIfAbsent(child.getValue(), path + child.getKey());
+            }
+        }
+    }
+
+    private static File directoryOf(byte type) {
+        switch (type) {
+            case COMMIT:
+                return Repository.COMMIT_DIR;
+            case TREE:
+                return Repository.TREES_DIR;
+            default:
+                return Repository.BLOBS_DIR;
+        }
+    }
+
+    /** Contents of an object, from its loose file or an existing pack. */
+    private static byte[] readLoose(String id, byte type) {
+        File loose = ObjectStore.objectFile(directoryOf(type), id);
+        return loose.exists() ? ObjectStore.read(loose) : read(id);
+    }
+
+    /** Size of an object without reading it, for sorting. */
+    private static long sizeOf(String id, byte type) {
+        File loose = ObjectStore.objectFile(directoryOf(type), id);
+        if (loose.exists()) {
+            return ObjectStore.sizeOf(loose);
+        }
+        for (PackFile pack : getPacks()) {
+            int position = pack.find(id);
+            if (position >= 0) {
+                return pack.readHeader(pack.offsetAt(position)).size;
+            }
+        }
+        return 0;
+    }
+
+    private static synchronized List<PackFile> getPacks() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            File[] files = PACK_DIRECTORY.listFiles((dir, name) -> name.startsWith("pack-") && name.endsWith(".idx"));
+            if (files != null) {
+                Arrays.sort(files);
+                for (File f : files) {
+                    try {
+                        packs.add(new PackFile(f));
+                    } catch (IOException e) {
+                        throw Utils.error("Cannot open pack %s: %s", f.getName(), e.getMessage());
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Forgets the open packs so they are listed again on next use.
+     */
+    public static synchronized void unload() {
+        if (packs != null) {
+            for (PackFile pack : packs) {
+                try {
+                    pack.data.close();
+                } catch (IOException e) {
+                    // nothing was written through it
+                }
+            }
+        }
+        packs = null;
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+    }
+
+    /** Returns the position of ID in this pack's index, or -1. */
+    private int find(String id) {
+        if (id == null || id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Utils.fromHex(id);
+        int bucket = key[0] & 0xff;
+        int lo = bucket == 0 ? 0 : index.getInt(8 + (bucket - 1) * 4);
+        int hi = index.getInt(8 + bucket * 4) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareIdAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int compareIdAt(int position, byte[] key) {
+        int base = HEADER_BYTES + position * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i++) {
+            int cmp = Integer.compare(index.get(base + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String idAt(int position) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(HEADER_BYTES + position * ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    private byte typeAt(int position) {
+        return index.get(HEADER_BYTES + count * ID_BYTES + position);
+    }
+
+    private long offsetAt(int position) {
+        return index.getLong(HEADER_BYTES + count * (ID_BYTES + 1) + position * 8);
+    }
+
+    /** Where an entry of the data file keeps its data, and what the data stands for. */
+    private static class EntryHeader {
+        byte encoding;
+        /** the id of the delta base, or null for a whole object */
+        String base;
+        /** the size of the object */
+        int size;
+        /** the offset and length of the data */
+        long start;
+        int length;
+    }
+
+    private EntryHeader readHeader(long offset) {
+        EntryHeader header = new EntryHeader();
+        ByteBuffer buffer = readAt(offset, 2 + ID_BYTES + 8);
+        if (buffer.limit() < 2) {
+            throw truncated();
+        }
+        header.encoding = buffer.get(1);
+        int headerBytes = 2 + ((header.encoding & DELTA) != 0 ? ID_BYTES : 0)
+                + (dataVersion >= DATA_VERSION ? 4 : 0) + 4;
+        if (buffer.limit() < headerBytes) {
+            throw truncated();
+        }
+        int pos = 2;
+        if ((header.encoding & DELTA) != 0) {
+            byte[] id = new byte[ID_BYTES];
+            buffer.get(pos, id);
+            header.base = Utils.toHex(id);
+            pos += ID_BYTES;
+        }
+        if (dataVersion >= DATA_VERSION) {
+            header.size = buffer.getInt(pos);
+            pos += 4;
+        }
+        header.length = buffer.getInt(pos);
+        header.start = offset + pos + 4;
+        try {
+            if (header.length < 0 || header.start + header.length > data.size()) {
+                throw truncated();
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error reading pack %s: %s", dataFile.getName(), e.getMessage());
+        }
+        if (dataVersion < DATA_VERSION) {
+            if (header.base == null) {
+                header.size = header.length;
+            } else {
+                // varint baseSize and varint targetSize take at most five bytes each
+                ByteBuffer delta = readAt(header.start, Math.min(header.length, 10));
+                byte[] start = new byte[delta.remaining()];
+                delta.get(start);
+                header.size = Delta.targetSize(start);
+            }
+        }
+        return header;
+    }
+
+    private byte[] readEntry(long offset) {
+        EntryHeader header = readHeader(offset);
+        byte[] contents;
+        if ((header.encoding & DEFLATED) != 0) {
+            ByteArrayOutputStream inflated = new ByteArrayOutputStream(header.base == null ? header.size : 64);
+            inflate(window(header), inflated);
+            contents = inflated.toByteArray();
+        } else {
+            ByteBuffer stored = readAt(header.start, header.length);
+            if (stored.remaining() < header.length) {
+                throw truncated();
+            }
+            contents = new byte[header.length];
+            stored.get(contents);
+        }
+        if (header.base == null) {
+            return contents;
+        }
+        int position = find(header.base);
+        if (position < 0) {
+            throw Utils.error("Corrupt pack %s: missing delta base %s.", dataFile.getName(), header.base);
+        }
+        return Delta.apply(readEntry(offsetAt(position)), contents);
+    }
+
+    private void writeEntry(long offset, File dest) {
+        EntryHeader header = readHeader(offset);
+        if (header.base != null) {
+            Utils.writeContents(dest, readEntry(offset));
+            return;
+        }
+        try (FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if ((header.encoding & DEFLATED) != 0) {
+                inflate(window(header), Channels.newOutputStream(out));
+            } else {
+                long done = 0;
+                while (done < header.length) {
+                    long copied = data.transferTo(header.start + done, header.length - done, out);
+                    if (copied == 0) {
+                        // past the end of the data file
+                        throw truncated();
+                    }
+                    done += copied;
+                }
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error writing %s: %s", dest.getName(), e.getMessage());
+        }
+    }
+
+    private GitletException truncated() {
+        return Utils.error("Corrupt pack %s: truncated entry.", dataFile.getName());
+    }
+
+    /** Reads up to LENGTH bytes of the data file from OFFSET on. */
+    private ByteBuffer readAt(long offset, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            int n;
+            do {
+                n = data.read(buffer, offset + buffer.position());
+            } while (n > 0 && buffer.hasRemaining());
+        } catch (IOException e) {
+            throw Utils.error("Error reading pack %s: %s", dataFile.getName(), e.getMessage());
+        }
+        return buffer.flip();
+    }
+
+    /** Maps the data of an entry. */
+    private MappedByteBuffer window(EntryHeader header) {
+        try {
+            return data.map(FileChannel.MapMode.READ_ONLY, header.start, header.length);
+        } catch (IOException e) {
+            throw Utils.error("Error reading pack %s: %s", dataFile.getName(), e.getMessage());
+        }
+    }
+
+    private static byte[] deflate(byte[] bytes) throws IOException {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(deflated)) {
+            out.write(bytes);
+        }
+        return deflated.toByteArray();
+    }
+
+    /** Inflates compressed entry data into OUT, which is left open. */
+    private void inflate(ByteBuffer in, OutputStream out) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(in);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw truncated();
+                }
+                out.write(buffer, 0, n);
+            }
+        } catch (DataFormatException | IOException e) {
+            throw Utils.error("Corrupt pack %s: %s", dataFile.getName(), e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** An object on its way into a pack. */
+    private static class PackedObject {
+        final String id;
+        final byte type;
+        final String nameHint;
+        final long size;
+        byte[] contents;
+        int depth = 0;
+        long offset;
+
+        PackedObject(String id, byte type, String nameHint, long size) {
+            this.id = id;
+            this.type = type;
+            this.nameHint = nameHint;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Represents the refs database: where each branch points and which branch is current. HEAD is not
+ * stored separately; it is the commit the current branch points to.
+ * <p>
+ * Branches live in .gitlet/packed-refs, one {@code <commit id> <branch name>} line per branch sorted
+ * by name, so one branch is found with a binary search over the mapped file, and as loose files
+ * .gitlet/branches/[name] holding a commit id, which take precedence over packed entries. Updates
+ * write loose files; {@code repack} moves them into packed-refs.
+ * <p>
+ * Every update is a compare-and-swap: a file is changed by creating [file].lock, which fails if
+ * another process holds it, checking that the ref still has the value the command read, writing the
+ * lock and renaming it over the file. Several refs changed together are all locked and checked
+ * before any is renamed, and renamed through the {@link Journal}.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Refs {
+
+    public static final File PACKED_FILE = Utils.join(Repository.GITLET_DIR, "packed-refs");
+    public static final File LOOSE_DIR = Repository.BRANCH;
+    public static final File CURRENT_FILE = Utils.join(Repository.GITLET_DIR, "currentBranch");
+
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final String PACKED_HEADER = "# gitlet packed-refs, sorted\n";
+    private static final int ID_LENGTH = Utils.UID_LENGTH;
+
+    /** the mapped packed-refs file, null until loaded or if there is none */
+    private static MappedByteBuffer packed = null;
+    private static boolean packedLoaded = false;
+
+    /**
+     * Returns the commit a branch points to.
+     *
+     * @param branch The name of the branch.
+     * @return The commit id, or null if there is no such branch.
+     */
+    public static String getBranch(String branch) {
+        return read(branchFile(branch));
+    }
+
+    /**
+     * Points a branch at a commit, creates it or deletes it, provided it still points where the
+     * command last saw it.
+     *
+     * @param branch   The name of the branch.
+     * @param expected The commit it points to now, or null if it must not exist yet.
+     * @param commit   The commit to point it to, or null to delete it.
+     */
+    public static void setBranch(String branch, String expected, String commit) {
+        Transaction.write(branchFile(branch), expected, commit);
+    }
+
+    /**
+     * Returns the name of the current branch.
+     */
+    public static String getCurrentBranch() {
+        return read(CURRENT_FILE);
+    }
+
+    /**
+     * Makes another branch the current one.
+     *
+     * @param expected The current branch as last seen, or null in a new repository.
+     * @param branch   The new current branch.
+     */
+    public static void setCurrentBranch(String expected, String branch) {
+        Transaction.write(CURRENT_FILE, expected, branch);
+    }
+
+    /**
+     * Reads every branch at once.
+     *
+     * @return Map from branch name to commit id, sorted by name.
+     */
+    public static SortedMap<String, String> branches() {
+        SortedMap<String, String> result = branchesOnDisk();
+        for (File file : Transaction.pendingFiles()) {
+            if (LOOSE_DIR.equals(file.getParentFile())) {
+                String commit = Transaction.pendingContents(file);
+                if (commit == null) {
+                    result.remove(file.getName());
+                } else {
+                    result.put(file.getName(), commit);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static SortedMap<String, String> branchesOnDisk() {
+        SortedMap<String, String> result = new TreeMap<>();
+        MappedByteBuffer buffer = packed();
+        if (buffer != null) {
+            int pos = PACKED_HEADER.length();
+            while (pos < buffer.limit()) {
+                int end = lineEnd(buffer, pos);
+                result.put(string(buffer, pos + ID_LENGTH + 1, end), string(buffer, pos, pos + ID_LENGTH));
+                pos = end + 1;
+            }
+        }
+        List<String> loose = Utils.plainFilenamesIn(LOOSE_DIR);
+        if (loose != null) {
+            for (String name : loose) {
+                if (!name.endsWith(LOCK_SUFFIX)) {
+                    result.put(name, Utils.readContentsAsString(new File(LOOSE_DIR, name)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether a name can be given to a branch.
+     */
+    public static boolean isValidBranchName(String branch) {
+        return !branch.isEmpty() && !branch.endsWith(LOCK_SUFFIX) && !branch.contains("/")
+                && !branch.contains("\n") && !branch.contains("\t") && !branch.startsWith(".");
+    }
+
+    /**
+     * Moves every loose branch into packed-refs and deletes the loose files.
+     */
+    public static void pack() {
+        File packedLock = lockOf(PACKED_FILE);
+        lock(packedLock, "packed refs");
+        List<File> looseLocks = new ArrayList<>();
+        try {
+            // changes of an open transaction are written as loose files when it commits
+            SortedMap<String, String> all = branchesOnDisk();
+            // sorted by UTF-8 bytes, the order packedValue searches in
+            List<String> names = new ArrayList<>(all.keySet());
+            names.sort((a, b) -> Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8)));
+            StringBuilder contents = new StringBuilder(PACKED_HEADER);
+            for (String name : names) {
+                contents.append(all.get(name)).append(' ').append(name).append('\n');
+            }
+            Utils.writeContents(packedLock, contents.toString());
+            // a loose file can only go once its value is packed, and while no one else is changing it
+            List<File> loose = new ArrayList<>();
+            for (String name : all.keySet()) {
+                File file = new File(LOOSE_DIR, name);
+                File lock = lockOf(file);
+                if (file.exists() && tryLock(lock)) {
+                    looseLocks.add(lock);
+                    if (all.get(name).equals(Utils.readContentsAsString(file))) {
+                        loose.add(file);
+                    }
+                }
+            }
+            Durability.install(packedLock, PACKED_FILE);
+            unload();
+            // the packed values must be on disk before the loose files go
+            Durability.flush();
+            for (File file : loose) {
+                file.delete();
+            }
+        } finally {
+            packedLock.delete();
+            for (File lock : looseLocks) {
+                lock.delete();
+            }
+        }
+    }
+
+    /**
+     * Forgets the mapped packed-refs file so it is read again on next use.
+     */
+    public static void unload() {
+        packed = null;
+        packedLoaded = false;
+    }
+
+    /**
+     * Applies ref updates all together: every file is locked and checked against its expected value
+     * before any is changed, and the changes are made through the {@link Journal}.
+     *
+     * @param updates  Map from ref file to {expected contents, new contents}, null meaning absent.
+     * @param installs Map from other written files to the files they replace along with the refs.
+     */
+    static void update(Map<File, String[]> updates, Map<File, File> installs) {
+        List<File> files = new ArrayList<>(updates.keySet());
+        files.sort(Comparator.comparing(File::getPath));
+        List<File> locks = new ArrayList<>();
+        File packedLock = lockOf(PACKED_FILE);
+        boolean packedLocked = false;
+        try {
+            for (File file : files) {
+                File lock = lockOf(file);
+                lock(lock, refName(file));
+                locks.add(lock);
+            }
+            Set<String> unpack = new TreeSet<>();
+            for (File file : files) {
+                String[] update = updates.get(file);
+                if (!Objects.equals(currentValue(file), update[0])) {
+                    Repository.errorMessage("The " + refName(file) + " was changed by another process.");
+                }
+                if (update[1] != null) {
+                    Utils.writeContents(lockOf(file), update[1]);
+                } else if (LOOSE_DIR.equals(file.getParentFile()) && packedValue(file.getName()) != null) {
+                    unpack.add(file.getName());
+                }
+            }
+            Map<File, File> renames = new LinkedHashMap<>();
+            List<File> deletes = new ArrayList<>();
+            if (!unpack.isEmpty()) {
+                lock(packedLock, "packed refs");
+                packedLocked = true;
+                writePackedWithout(packedLock, unpack);
+                renames.put(packedLock, PACKED_FILE);
+            }
+            for (File file : files) {
+                if (updates.get(file)[1] != null) {
+                    renames.put(lockOf(file), file);
+                } else {
+                    deletes.add(file);
+                    deletes.add(lockOf(file));
+                }
+            }
+            renames.putAll(installs);
+            Journal.apply(renames, deletes);
+            if (packedLocked) {
+                unload();
+            }
+        } finally {
+            // after a crash halfway through the journal, its lock files are what it renames
+            if (!Journal.isPending()) {
+                for (File lock : locks) {
+                    lock.delete();
+                }
+                if (packedLocked) {
+                    packedLock.delete();
+                }
+            }
+        }
+    }
+
+    /** Reads a ref file as changed by the current transaction. */
+    private static String read(File file) {
+        if (Transaction.isPending(file)) {
+            return Transaction.pendingContents(file);
+        }
+        return currentValue(file);
+    }
+
+    /** Reads a ref file as it is on disk, falling back to packed-refs for branches. */
+    private static String currentValue(File file) {
+        if (file.exists()) {
+            return Utils.readContentsAsString(file);
+        }
+        return LOOSE_DIR.equals(file.getParentFile()) ? packedValue(file.getName()) : null;
+    }
+
+    /** Looks a branch up in packed-refs with a binary search over its lines. */
+    private static String packedValue(String branch) {
+        MappedByteBuffer buffer = packed();
+        if (buffer == null) {
+            return null;
+        }
+        byte[] key = branch.getBytes(StandardCharsets.UTF_8);
+        int low = PACKED_HEADER.length();
+        int high = buffer.limit();
+        // LOW and HIGH are always at the start of a line
+        while (low < high) {
+            int start = (low + high) >>> 1;
+            while (start > low && buffer.get(start - 1) != '\n') {
+                start--;
+            }
+            int end = lineEnd(buffer, start);
+            int cmp = compare(buffer, start + ID_LENGTH + 1, end, key);
+            if (cmp == 0) {
+                return string(buffer, start, start + ID_LENGTH);
+            } else if (cmp < 0) {
+                low = end + 1;
+            } else {
+                high = start;
+            }
+        }
+        return null;
+    }
+
+    private static MappedByteBuffer packed() {
+        if (!packedLoaded) {
+            packedLoaded = true;
+            packed = null;
+            if (PACKED_FILE.exists()) {
+                try (RandomAccessFile raf = new RandomAccessFile(PACKED_FILE, "r")) {
+                    packed = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                } catch (IOException e) {
+                    throw Utils.error("Error reading packed refs: %s", e.getMessage());
+                }
+                if (!PACKED_HEADER.equals(string(packed, 0, Math.min(packed.limit(), PACKED_HEADER.length())))) {
+                    throw Utils.error("Corrupt packed refs.");
+                }
+            }
+        }
+        return packed;
+    }
+
+    private static void writePackedWithout(File target, Set<String> removed) {
+        StringBuilder contents = new StringBuilder(PACKED_HEADER);
+        MappedByteBuffer buffer = packed();
+        int pos = PACKED_HEADER.length();
+        while (buffer != null && pos < buffer.limit()) {
+            int end = lineEnd(buffer, pos);
+            if (!removed.contains(string(buffer, pos + ID_LENGTH + 1, end))) {
+                contents.append(string(buffer, pos, end)).append('\n');
+            }
+            pos = end + 1;
+        }
+        Utils.writeContents(target, contents.toString());
+    }
+
+    private static int lineEnd(MappedByteBuffer buffer, int pos) {
+        while (pos < buffer.limit() && buffer.get(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /** Compares bytes FROM to TO of BUFFER with KEY as unsigned bytes. */
+    private static int compare(MappedByteBuffer buffer, int from, int to, byte[] key) {
+        int n = Math.min(to - from, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = Integer.compare(buffer.get(from + i) & 0xff, key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(to - from, key.length);
+    }
+
+    private static String string(MappedByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static File branchFile(String branch) {
+        return new File(LOOSE_DIR, branch);
+    }
+
+    private static File lockOf(File file) {
+        return new File(file.getParentFile(), file.getName() + LOCK_SUFFIX);
+    }
+
+    private static String refName(File file) {
+        return LOOSE_DIR.equals(file.getParentFile()) ? "branch " + file.getName() : "current branch";
+    }
+
+    private static void lock(File lock, String what) {
+        if (!tryLock(lock)) {
+            Repository.errorMessage("Unable to lock the " + what + "; another gitlet process is changing it. "
+                    + "If none is running, remove " + lock.getName() + ".");
+        }
+    }
+
+    private static boolean tryLock(File lock) {
+        try {
+            Files.createFile(lock.toPath());
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            throw Utils.error("Cannot create %s: %s", lock.getName(), e.getMessage());
+        }
+    }
+}
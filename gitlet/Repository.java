@@ -1,10 +1,15 @@
 package gitlet;
 
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 
 import static gitlet.Utils.*;
 
@@ -41,15 +46,27 @@ public class Repository implements Serializable {
      */
     public static final File BLOBS_DIR = join(GITLET_DIR, "blobs");
     /**
-     * Head File
+     * trees directory
      */
-    public static File HEAD = join(GITLET_DIR, "heads");
+    public static final File TREES_DIR = join(GITLET_DIR, "trees");
+    /**
+     * packs directory
+     */
+    public static final File PACKS_DIR = join(GITLET_DIR, "packs");
+    /**
+     * commit-graph file
+     */
+    public static final File COMMIT_GRAPH = join(GITLET_DIR, "commit-graph");
     /**
      * Branches File
      */
     public static File BRANCH = join(GITLET_DIR, "branches");
     /**
-     * staging directory that contain staging for adding and staging for removing .
+     * index file, the snapshot of the next commit
+     */
+    public static final File INDEX = join(GITLET_DIR, "index");
+    /**
+     * staging directory of older versions, read once to build the index.
      */
     public static File StagingAreaDir = join(GITLET_DIR, "stagingArea");
     /**
@@ -64,11 +81,6 @@ public class Repository implements Serializable {
     public static String head = "no";
     // last commit
     public static String firstParent;
-    /**
-     * track the loaded commits applying lazy load and cashing
-     */
-    private static Map<String, Integer> isLoaded = new TreeMap<>();
-    private static Map<String, String> trackedByName = new TreeMap<>();
     /** ------------------------------------------------------------init command----------------------------------------- */
 
     /**
@@ -88,9 +100,8 @@ public class Repository implements Serializable {
 
         Commit initialCommit = new Commit();
         String commitName = initialCommit.saveCommit();
-        // at the initial commit the head and its parent is the same thing
-        setHead(commitName);
-        Branches.updateBranch("master", commitName);
+        Config.set(Config.OBJECT_FORMAT, String.valueOf(Config.LATEST_OBJECT_FORMAT));
+        Branches.updateBranch("master", null, commitName);
         Branches.updateCurrentBranch("master");
 
     }
@@ -102,32 +113,77 @@ public class Repository implements Serializable {
      * identical to the version in the current commit, the file is not staged for addition and is removed from
      * the staging area if it is already there. Additionally, if the file was staged for removal, it is no longer
      * staged for removal after this command.
+     * <p>
+     * Each operand is a file, a directory, which adds every file below it, or a glob such as
+     * {@code *.txt} or {@code src/**}, matched against the paths of the working tree. Files whose
+     * stat data still matches their index entry are skipped; the rest are hashed and their blobs
+     * written in parallel by {@link Blob#saveBlobs(List)}, and the index is written once.
      *
-     * @param fileName The name of the file to be staged for addition.
+     * @param operands The files, directories and globs to be staged for addition.
      */
-
-
-    public static void add(String fileName) {
+    public static void add(String... operands) {
         checkInitialized();
-        File file = new File(CWD, fileName);
-        if (!file.exists()) {
-            errorMessage("File does not exist.");
+        SortedMap<String, Index.Entry> stats = new TreeMap<>();
+        for (String operand : operands) {
+            stats.putAll(filesToAdd(operand));
+        }
+        // stat before hashing: a change made while hashing then shows up as a different mtime
+        SortedMap<String, File> changed = new TreeMap<>();
+        for (Map.Entry<String, Index.Entry> stat : stats.entrySet()) {
+            if (!Index.matchesStat(stat.getKey(), stat.getValue())) {
+                changed.put(stat.getKey(), new File(CWD, stat.getKey()));
+            }
         }
-        // fileSha is the name of the blob
-        // at staging area the file stored with its original name
-        // we compare the sha1 of the file and existing file at current commit
-
-        if (isTheSameAsTheCurrentCommit(fileName)) {
-            // remove it from staging area
-            // and if staged for removal unstage in
-            StagingArea.unstageFromAdd(fileName);
-            StagingArea.unstageFromRemove(fileName);
-
-        } else {
-            StagingArea.stageForAdd(file, fileName);
+        Map<File, String> blobs = Blob.saveBlobs(new ArrayList<>(changed.values()));
+        // the index holding the blob of the head commit is what makes a file unstaged, so staging
+        // and unstaging are both recording the blob the file now has
+        for (Map.Entry<String, File> file : changed.entrySet()) {
+            Index.put(file.getKey(), stats.get(file.getKey()).withBlob(blobs.get(file.getValue())));
         }
+        Index.writeIfChanged();
+    }
 
+    /**
+     * Finds the working files an operand of add names.
+     *
+     * @param operand A file, a directory or a glob, relative to the working directory.
+     * @return Map from path to stat data of every file it names.
+     */
+    private static SortedMap<String, Index.Entry> filesToAdd(String operand) {
+        Path relative = CWD.toPath().relativize(new File(CWD, operand).toPath().normalize());
+        String path = relative.toString().replace(File.separatorChar, '/');
+        if (path.startsWith("../") || path.equals("..")) {
+            errorMessage("File is outside the working directory.");
+        }
+        File file = path.isEmpty() ? CWD : new File(CWD, path);
+        if (path.equals(".gitlet") || path.startsWith(".gitlet/")) {
+            errorMessage("File does not exist.");
+        }
+        SortedMap<String, Index.Entry> result = new TreeMap<>();
+        if (file.isFile()) {
+            result.put(path, Index.stat(file, null));
+        } else if (file.isDirectory()) {
+            result.putAll(WorkingTree.scan(file, path.isEmpty() ? "" : path + "/"));
+        } else if (operand.matches(".*[*?\\[{].*")) {
+            PathMatcher matcher;
+            try {
+                matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+            } catch (IllegalArgumentException e) {
+                errorMessage("Invalid pattern: " + operand);
+                return result;
+            }
+            for (Map.Entry<String, Index.Entry> entry : WorkingTree.scan().entrySet()) {
+                if (matcher.matches(Paths.get(entry.getKey()))) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (result.isEmpty() && !file.isDirectory()) {
+            errorMessage("File does not exist.");
+        }
+        return result;
     }
+
     /**-----------------------------------------------------------------commit command-----------------------------------*/
     /**
      * Creates a new commit with the provided message. This commit:
@@ -145,6 +201,17 @@ public class Repository implements Serializable {
      * @param message The commit message describing the changes made in this commit.
      */
     public static void commit(String message) {
+        commit(message, null);
+    }
+
+    /**
+     * Creates a new commit with the provided message, as {@link #commit(String)}, recording a second
+     * parent when it is the result of a merge.
+     *
+     * @param message      The commit message describing the changes made in this commit.
+     * @param secondParent The name of the merged-in commit, or null for an ordinary commit.
+     */
+    public static void commit(String message, String secondParent) {
         checkInitialized();
 
         if (message == null) {
@@ -152,27 +219,22 @@ public class Repository implements Serializable {
         }
         // get the files from staging file
         // remove from them the files tha staged to be removed
-
-        copyTheLastCommitTrackedFiles();
-        boolean x = copyFilesFromStagingArea();
-        boolean y = removeFilesThatStagedTobeRemoved();
-
-        if (!x & !y)
+        Map<String, String> changes = getStagedChanges();
+        if (changes.isEmpty()) {
             errorMessage("No changes added to the commit.");
+        }
 
         firstParent = getHead();
 
-        Commit commit = new Commit(message, firstParent, firstParent, trackedByName);
+        // only the trees of directories with staged changes are rewritten
+        String tree = Tree.update(Commit.getCommitHeader(firstParent).getTree(), changes);
+        Commit commit = new Commit(message, firstParent, secondParent, tree);
         String newHead = commit.saveCommit();
 
-        Blob.saveBlobs(StagingArea.getFilesStagedForAddingFiles());
-
-        setHead(newHead);
+        Branches.updateBranch(Branches.getCurrentBranch(), firstParent, newHead);
 
         StagingArea.clear();
 
-        Branches.updateBranch(Branches.getCurrentBranch(), newHead);
-
     }
     /**----------------------------------------------------------------------------rm command----------------------------*/
     /**
@@ -188,7 +250,7 @@ public class Repository implements Serializable {
         if (StagingArea.isStagedForAdding(fileName)) {
             StagingArea.unstageFromAdd(fileName);
         } else if (trackedByCurrentCommit(fileName)) {
-            StagingArea.stageForRemove(fileName, trackedByName.get(fileName));
+            StagingArea.stageForRemove(fileName, getTrackedFilesByCommit(getHead()).get(fileName));
             removeFileFromCWD(fileName);
         } else {
             errorMessage("No reason to remove the file.");
@@ -220,38 +282,46 @@ public class Repository implements Serializable {
      * commits (similar to `git log --first-parent` in regular Git). This set of commit nodes is called the commit’s history.
      * For every node in this history, the information displayed includes the commit ID, the time the commit was made,
      * and the commit message.:
+     *
+     * @param options {@code -n <count>}, {@code --since <date>}, {@code --until <date>} and
+     *                {@code --oneline}; see {@link LogPrinter}.
      */
-    public static void log() {
+    public static void log(String[] options) {
         checkInitialized();
 
-        String current = getHead();
-        while (true) {
-            Commit commit = Commit.getCommitByName(current);
-            printCommit(current, commit.getMessage(), commit.getDate());
-            String par = commit.getFirstParent();
-            if (Objects.equals(par, null)) {
-                break;
+        LogPrinter printer = LogPrinter.parse(options);
+        // parents and times come from the commit-graph, so only printed commits are opened
+        for (int current = CommitGraph.indexOf(getHead()); current != CommitGraph.NONE && !printer.isDone();
+             current = CommitGraph.firstParentOf(current)) {
+            if (printer.accepts(CommitGraph.timeOf(current))) {
+                printer.print(CommitGraph.idAt(current));
             }
-            current = par;
         }
+        printer.flush();
     }
     /**--------------------------------------------------------------------------- global-log------------------------*/
     /**
      * Displays the log of all commits in the repository. For each commit, it prints the commit ID,
-     * commit message, and commit date in a formatted manner.
+     * commit message, and commit date in a formatted manner. Commits are taken from the
+     * commit-graph, children before their parents, without listing the object store.
+     *
+     * @param options The same options as {@link #log(String[])}.
      */
-    public static void global_log() {
+    public static void global_log(String[] options) {
         checkInitialized();
 
-        List<String> ls = Utils.plainFilenamesIn(COMMIT_DIR);
-        for (String s : ls) {
-            Commit commit = Commit.getCommitByName(s);
-            printCommit(s, commit.getMessage(), commit.getDate());
+        LogPrinter printer = LogPrinter.parse(options);
+        for (int i = CommitGraph.size() - 1; i >= 0 && !printer.isDone(); i--) {
+            if (printer.accepts(CommitGraph.timeOf(i))) {
+                printer.print(CommitGraph.idAt(i));
+            }
         }
+        printer.flush();
     }
     /**---------------------------------------------------------------------------find-----------------------------------*/
     /**
-     * Searches for and prints all commits in the `COMMIT_DIR` directory that match the given commit message.
+     * Prints the ids of all commits that have the given commit message, one per line.
+     * The commits are looked up in the message index, so only commits with that message are read.
      * If no commits with the specified message are found, an error message is displayed.
      *
      * @param message The commit message to search for. This is a case-sensitive string.
@@ -259,21 +329,41 @@ public class Repository implements Serializable {
     public static void find(String message) {
         checkInitialized();
 
-        List<String> ls = Utils.plainFilenamesIn(COMMIT_DIR);
-
-        boolean found = false;
+        printFound(MessageIndex.findExact(message));
+    }
 
-        for (String s : ls) {
-            Commit commit = Commit.getCommitByName(s);
+    /**
+     * Prints the ids of all commits whose message contains the given text, or a match of the given
+     * regular expression.
+     *
+     * @param option  {@code --contains} or {@code --regex}.
+     * @param pattern The text or regular expression to search for.
+     */
+    public static void find(String option, String pattern) {
+        checkInitialized();
 
-            if (commit.getMessage().equals(message)) {
-                found = true;
-                System.out.println(s);
+        if (option.equals("--contains")) {
+            printFound(MessageIndex.findContaining(pattern));
+        } else if (option.equals("--regex")) {
+            Pattern regex = null;
+            try {
+                regex = Pattern.compile(pattern);
+            } catch (PatternSyntaxException e) {
+                errorMessage("Invalid regular expression.");
             }
+            printFound(MessageIndex.findMatching(regex));
+        } else {
+            errorMessage("Incorrect operands.");
         }
-        if (!found) {
+    }
+
+    private static void printFound(List<String> names) {
+        if (names.isEmpty()) {
             errorMessage("Found no commit with that message.");
         }
+        for (String name : names) {
+            System.out.println(name);
+        }
     }
     /**---------------------------------------------------------------------------status---------------------------------*/
     /**
@@ -291,13 +381,16 @@ public class Repository implements Serializable {
 
         printBranches();
 
-        printStagedFiles();
+        // one pass over the head commit, the index and the working tree serves every section
+        List<WorkingTree.Row> rows = WorkingTree.compare(getTrackedFilesByCommit(getHead()));
+
+        printStagedFiles(rows);
 
-        printRemovedFiles();
+        printRemovedFiles(rows);
 
-        printModificationsNotStagedForCommit();
+        printModificationsNotStagedForCommit(rows);
 
-        printUntrackedFiles();
+        printUntrackedFiles(rows);
     }
     /**--------------------------------------------------------------------------- checkout------------------------------*/
     /**
@@ -336,10 +429,11 @@ public class Repository implements Serializable {
         }
     }
 
-    public static void checkout(String commitName, String fileName) {
-        if (!Commit.commitExists(commitName)) {
-            errorMessage("No commit with that id exists.");
-        } else if (!trackedByCurrentCommit(fileName)) {
+    public static void checkout(String commitId, String fileName) {
+        checkInitialized();
+
+        String commitName = CommitIdTable.resolve(commitId);
+        if (!trackedByCommit(commitName, fileName)) {
             errorMessage("File does not exist in that commit.");
         } else {
             loadFile(fileName, commitName);
@@ -365,9 +459,8 @@ public class Repository implements Serializable {
             errorMessage("No such branch exists.");
         } else if (branchName.equals(Branches.getCurrentBranch())) {
             errorMessage("No need to checkout the current branch.");
-        } else if (thereExistUnTrackedFile()) {
-            errorMessage("There is an untracked file in the way; delete it, or add and commit it first.");
         } else {
+            // fails if an untracked file is in the way
             Branches.loadBranch(branchName);
         }
 
@@ -387,6 +480,8 @@ public class Repository implements Serializable {
 
         if (Branches.branchExists(branchName)) {
             errorMessage("A branch with that name already exists.");
+        } else if (!Refs.isValidBranchName(branchName)) {
+            errorMessage("Invalid branch name.");
         } else {
             Branches.makeNewBranch(branchName);
         }
@@ -398,17 +493,14 @@ public class Repository implements Serializable {
      * head pointer after using reset. The [commit id] may be abbreviated as for checkout. The staging area is cleared. The
      * command is essentially checkout of an arbitrary commit that also changes the current branch head
      */
-    public static void reset(String commitName) {
+    public static void reset(String commitId) {
         checkInitialized();
 
-        if (!Commit.commitExists(commitName)) {
-            errorMessage("No commit with that id exists.");
-        } else if (thereExistUnTrackedFile()) {
-            errorMessage("There is an untracked file in the way; delete it, or add and commit it first.");
-        } else {
-            Commit.loadCommitFiles(commitName);
-            Branches.updateBranch(Branches.getCurrentBranch(), commitName);
-        }
+        String commitName = CommitIdTable.resolve(commitId);
+        // fails if an untracked file is in the way
+        Commit.loadCommitFiles(commitName);
+        Branches.updateBranch(Branches.getCurrentBranch(), getHead(), commitName);
+        StagingArea.clear();
     }
     /** --------------------------------------------------------------------------- merge----------------------------*/
 
@@ -453,6 +545,114 @@ public class Repository implements Serializable {
 
     }
 
+    /** --------------------------------------------------------------------------- repack-----------------------------*/
+    /**
+     * Moves every commit and blob of the repository into a single pack file, storing objects as deltas
+     * against similar objects where that is smaller, and deletes the loose object files and old packs.
+     * Objects remain readable by their SHA-1 names exactly as before.
+     */
+    public static void repack() {
+        checkInitialized();
+
+        PackFile.repack();
+        Refs.pack();
+    }
+
+    /** --------------------------------------------------------------------------- watch------------------------------*/
+    /**
+     * Watches the working tree until stopped. While it runs, status, checkout and reset only look at
+     * the files that changed since they last ran instead of the whole working tree.
+     */
+    public static void watch() {
+        checkInitialized();
+
+        Watcher.run();
+    }
+
+    /** --------------------------------------------------------------------------- serve------------------------------*/
+    /**
+     * Runs commands sent by {@link Client} until stopped, keeping the repository state read by one
+     * command for the next ones instead of starting a new JVM for each.
+     */
+    public static void serve() {
+        checkInitialized();
+
+        Server.run();
+    }
+
+    /** --------------------------------------------------------------------------- batch------------------------------*/
+    /**
+     * Runs the commands read from standard input in one process, saving the refs and the staging
+     * area they change together at the end or at each checkpoint, and not at all past the last
+     * checkpoint if a command fails.
+     */
+    public static void batch() {
+        checkInitialized();
+
+        Batch.run();
+    }
+
+    /** --------------------------------------------------------------------------- migrate----------------------------*/
+    /**
+     * Upgrades a repository created by an older version of gitlet in place:
+     * loose commits and blobs that are still stored raw are rewritten in the compressed object format,
+     * and a repository whose blobs are named after their contents and file name is moved to
+     * content-only blob names, rewriting the file maps of its commits. Commit names do not change,
+     * so branches and parents keep pointing at the same commits.
+     */
+    public static void migrate() {
+        checkInitialized();
+
+        ObjectStore.migrate();
+        if (Config.getInt(Config.OBJECT_FORMAT, 1) < Config.LATEST_OBJECT_FORMAT) {
+            upgradeBlobNames();
+        }
+    }
+
+    /**
+     * Renames every blob after its contents only and points every commit at the new names.
+     * A blob whose name already matches its contents is left alone, so an interrupted upgrade can
+     * simply be run again; the old blobs are only deleted once the new format is recorded.
+     */
+    private static void upgradeBlobNames() {
+        Map<String, String> renamed = new HashMap<>();
+        for (String commitName : Commit.getAllCommitNames()) {
+            Commit commit = Commit.getCommitByName(commitName);
+            Map<String, String> tracked = new TreeMap<>();
+            boolean changed = false;
+            for (Map.Entry<String, String> entry : commit.getTrackByName().entrySet()) {
+                String newName = renamed.computeIfAbsent(entry.getValue(), Repository::saveContentAddressedBlob);
+                tracked.put(entry.getKey(), newName);
+                changed |= !newName.equals(entry.getValue());
+            }
+            if (changed) {
+                commit.rewriteTrackedFiles(tracked);
+            }
+        }
+        for (Map.Entry<String, Index.Entry> entry : Index.entries().entrySet()) {
+            String newName = renamed.computeIfAbsent(entry.getValue().blob, Repository::saveContentAddressedBlob);
+            Index.put(entry.getKey(), entry.getValue().withBlob(newName));
+        }
+        Index.write();
+        Config.set(Config.OBJECT_FORMAT, String.valueOf(Config.LATEST_OBJECT_FORMAT));
+        for (Map.Entry<String, String> entry : renamed.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue())) {
+                ObjectStore.objectFile(BLOBS_DIR, entry.getKey()).delete();
+            }
+        }
+        if (!PackFile.list(PackFile.BLOB).isEmpty()) {
+            // drop the packed copies of the old blobs
+            PackFile.repack();
+        }
+    }
+
+    private static String saveContentAddressedBlob(String oldName) {
+        byte[] contents = Blob.readContents(oldName);
+        String newName = sha1(contents);
+        Blob.saveBlob(contents, newName);
+        return newName;
+    }
+
     /**
      * --------------------------------------------------------------------------- helper methods------------------------
      */
@@ -462,8 +662,7 @@ public class Repository implements Serializable {
         if (!Branches.branchExists(branchName)) {
             errorMessage("No such branch.");
         }
-        File f = new File(BRANCH, branchName);
-        Commit.getLowestCommonAncestor(getHead(), Utils.readContentsAsString(f));
+        Commit.getLowestCommonAncestor(getHead(), Branches.getBranchHead(branchName));
     }
 
     /**
@@ -481,8 +680,7 @@ public class Repository implements Serializable {
         Commit commit = Commit.getCommitByName(commitName);
         String blobName = commit.getTrackedFileByName(fileName);
         File file = new File(Repository.CWD, fileName);
-        File blob = Blob.getFile(blobName);
-        Utils.writeContents(file, Utils.readContentsAsString(blob));
+        Blob.writeTo(blobName, file);
     }
 
     public static void printBranches() {
@@ -498,35 +696,54 @@ public class Repository implements Serializable {
     }
 
 
-    public static void printStagedFiles() {
+    public static void printStagedFiles(List<WorkingTree.Row> rows) {
         System.out.println("=== Staged Files ===");
-        List<String> files = StagingArea.getStagedForAdding();
-        for (String f : files) {
-            System.out.println(f);
+        for (WorkingTree.Row row : rows) {
+            if (row.isStagedForAdding()) {
+                System.out.println(row.path);
+            }
         }
         System.out.println();
     }
 
-    public static void printRemovedFiles() {
+    public static void printRemovedFiles(List<WorkingTree.Row> rows) {
         System.out.println("=== Removed Files ===");
-        List<String> files = StagingArea.getStagedToBeRemoved();
-        for (String f : files) {
-            System.out.println(f);
+        for (WorkingTree.Row row : rows) {
+            if (row.isStagedForRemoval()) {
+                System.out.println(row.path);
+            }
         }
         System.out.println();
     }
 
-    // TODO:fill out this function
-    public static void printModificationsNotStagedForCommit() {
+    /**
+     * Prints every file of the index whose working copy differs from it: files changed since they
+     * were staged or, when not staged, since the head commit, and files deleted without {@code rm}.
+     * Files whose stat data matches their index entry are not read.
+     */
+    public static void printModificationsNotStagedForCommit(List<WorkingTree.Row> rows) {
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (WorkingTree.Row row : rows) {
+            if (row.index == null) {
+                continue;
+            }
+            if (row.file == null) {
+                System.out.println(row.path + " (deleted)");
+            } else if (!Index.isUpToDate(row.path, new File(CWD, row.path), row.file)) {
+                System.out.println(row.path + " (modified)");
+            }
+        }
         System.out.println();
+        // keep the stat data of files that had to be hashed, so they are not hashed next time
+        Index.writeIfChanged();
     }
 
-    public static void printUntrackedFiles() {
+    public static void printUntrackedFiles(List<WorkingTree.Row> rows) {
         System.out.println("=== Untracked Files ===");
-        List<String> list = getUntrackedFiles();
-        for (String f : list) {
-            System.out.println(f);
+        for (WorkingTree.Row row : rows) {
+            if (row.isUntracked()) {
+                System.out.println(row.path);
+            }
         }
         System.out.println();
     }
@@ -537,9 +754,7 @@ public class Repository implements Serializable {
      * @return true if yes false otherwise
      */
     public static boolean trackedByCurrentCommit(String fileName) {
-        copyTheLastCommitTrackedFiles();
-        return trackedByName.containsKey(fileName);
-
+        return trackedByCommit(getHead(), fileName);
     }
 
     public static boolean trackedByCommit(String commitName, String fileName) {
@@ -547,63 +762,28 @@ public class Repository implements Serializable {
         return commit.isFileTracked(fileName);
     }
 
-    public static void copyTheLastCommitTrackedFiles() {
-        if (isLoaded.containsKey(getHead())) {
-            return;
-        }
-        isLoaded.put(getHead(), 1);
-        String commitName = getHead();
-        File f = Utils.join(COMMIT_DIR, commitName);
-        Commit lastCommit = Utils.readObject(f, Commit.class);
-
-        trackedByName = lastCommit.getTrackByName();
-
-    }
-
-    public static boolean copyFilesFromStagingArea() {
 
-        File[] files = StagingArea.getFilesStagedForAddingFiles();
-        if (files == null || files.length == 0) {
-            return false;
+    /**
+     * Returns the changes staged for the next commit: the blob of every file staged for addition,
+     * and null for every file staged for removal.
+     */
+    public static Map<String, String> getStagedChanges() {
+        Map<String, String> changes = new TreeMap<>();
+        for (String f : StagingArea.getStagedForAdding()) {
+            changes.put(f, Index.get(f).blob);
         }
-        for (File f : files) {
-            String contentSha = sha1(toString(f));
-
-            trackedByName.put(f.getName(), contentSha);
-
+        for (String f : StagingArea.getStagedToBeRemoved()) {
+            changes.put(f, null);
         }
-        return true;
+        return changes;
     }
 
-    public static void printCommit(String name, String message, Date date) {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z");
-        String formattedDate = dateFormat.format(date);
-        System.out.println("===");
-        System.out.println("commit " + name);
-        System.out.println("Date: " + formattedDate);
-        System.out.println(message);
-        System.out.println();
-    }
-
-
-    public static boolean removeFilesThatStagedTobeRemoved() {
-        List<String> files = StagingArea.getStagedToBeRemoved();
-        if (files.size() > 0) {
-            for (String f : files) {
-                trackedByName.remove(f);
-            }
-            return true;
-        }
-        return false;
-    }
-
-
     /**
-     * printing error message.
+     * Aborts the command with an error message; {@link Main} prints it and exits, and a
+     * {@link Server} sends it back to its client and goes on serving.
      */
     public static void errorMessage(String message) {
-        System.err.println(message);
-        System.exit(0);
+        throw new GitletException(message);
     }
 
     /**
@@ -613,16 +793,8 @@ public class Repository implements Serializable {
         GITLET_DIR.mkdirs();
         COMMIT_DIR.mkdirs();
         BLOBS_DIR.mkdirs();
-        StagingAreaDir.mkdirs();
-        StagingForAdding.mkdirs();
-        StagingForRemoving.mkdirs();
+        TREES_DIR.mkdirs();
         BRANCH.mkdirs();
-        try {
-            HEAD.createNewFile();
-
-        } catch (IOException e) {
-            errorMessage("Error creating head");
-        }
     }
 
     /**
@@ -631,67 +803,36 @@ public class Repository implements Serializable {
     public static String getHead() {
         // Check if the head is already cached
         if (head.equals("no")) {
-            head = Utils.readContentsAsString(HEAD);
+            head = Branches.getBranchHead(Branches.getCurrentBranch());
         }
         return head;
     }
 
-    public static boolean thereExistUnTrackedFile() {
-
-        return (getUntrackedFiles().size() != 0);
-    }
-
-    public static List<String> getCWDFiles() {
-        return Utils.plainFilenamesIn(CWD);
-    }
-
-    public static List<String> getUntrackedFiles() {
-        List<String> CWDFiles = getCWDFiles();
-        List<String> stagedFiles = StagingArea.getStagedForAdding();
-        Map<String, String> trackedByCommit = getTrackedFilesByCommit(getHead());
-        Map<String, String> tracked = new TreeMap<>();
-        ;
-        for (String s : trackedByCommit.keySet()) {
-            tracked.put(s, s);
-        }
-        for (String s : stagedFiles) {
-            tracked.put(s, s);
-        }
-        List<String> untrackedFiles = new ArrayList<>();
-        for (String s : CWDFiles) {
-            if (!tracked.containsKey(s)) {
-                untrackedFiles.add(s);
-            }
-        }
-
-        return untrackedFiles;
-    }
-
-    public static Map<String, String> getTrackedFilesByCommit(String commitName) {
-        Commit commit = Commit.getCommitByName(commitName);
-        Map<String, String> list = commit.getTrackByName();
-        return list;
-    }
-
-
     /**
-     * updating the head.
+     * Returns the files of a commit, from path to blob name; the commit is read once per command
+     * through the {@link ObjectCache}, and the map cannot be changed.
      */
-    public static void setHead(String name) {
-        File file = new File(GITLET_DIR, "heads");
-        Utils.writeContents(file, name);
-        head = name;
+    public static Map<String, String> getTrackedFilesByCommit(String commitName) {
+        return Commit.getCommitByName(commitName).getTrackByName();
     }
 
+
     /**
      * Knowing if the current working version of the file
      * is identical to the version in the current commit
      */
     public static boolean isTheSameAsTheCurrentCommit(String fileName) {
-        copyTheLastCommitTrackedFiles();
+        String blob = getTrackedFilesByCommit(getHead()).get(fileName);
+        if (blob == null) {
+            return false;
+        }
+        Index.Entry entry = Index.get(fileName);
         File file = new File(CWD, fileName);
-        String contentSha = sha1(toString(file));
-        return (contentSha.equals(trackedByName.get(fileName)));
+        if (entry != null && entry.blob.equals(blob)) {
+            // unchanged since it was staged or checked out; hashed only if its stat data changed
+            return Index.isUpToDate(fileName, file);
+        }
+        return HashService.blobId(file).equals(blob);
     }
 
     /**
@@ -707,11 +848,18 @@ public class Repository implements Serializable {
         if (file.exists()) {
             file.delete();
         }
+        // drop the directories the file leaves empty
+        File dir = file.getParentFile();
+        while (!dir.equals(CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
     }
     public static void checkInitialized() {
         if (!isInitialized()) {
             errorMessage("Not in an initialized Gitlet directory.");
         }
+        // finish ref changes a crashed process left halfway
+        Journal.recover();
     }
 
     /**
@@ -721,8 +869,4 @@ public class Repository implements Serializable {
         return file.exists();
     }
 
-    public static String toString(File file) {
-        return (Utils.readContentsAsString(file) + file.getName());
-    }
-
 }
@@ -0,0 +1,236 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Represents the gitlet server: a long-running {@code gitlet serve} process that runs the commands
+ * sent by the gitlet-client script, or by {@link Client}, over a Unix domain socket, .gitlet/serve.sock, one at a time, so they share
+ * one warm JVM and the state earlier commands have read: the index, the commit-graph, the message
+ * index, the packs and the {@link ObjectCache}.
+ * <p>
+ * A request is {@code int argc, UTF args[argc]}. The reply is a sequence of frames
+ * {@code byte stream, int length, byte[length] bytes} for stream {@link #STDOUT} or {@link #STDERR},
+ * ended by {@code byte EXIT, int status}.
+ * <p>
+ * Other processes may change the repository between requests, so before each one the size,
+ * modification time and file key of every file the kept state is read from are compared with what
+ * they were after the previous request; if any differ, that state is read again. Objects are named
+ * after their contents, so the object cache only has to be dropped when the object format changes.
+ * Loose branch files, the current branch and file hashes are read again for every request.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Server {
+
+    public static final File SOCKET_FILE = Utils.join(Repository.GITLET_DIR, "serve.sock");
+
+    public static final byte EXIT = 0;
+    public static final byte STDOUT = 1;
+    public static final byte STDERR = 2;
+
+    /** files the state kept between requests is read from */
+    private static final File[] STATE_FILES = {Index.INDEX_FILE, CommitGraph.GRAPH_FILE, MessageIndex.SEGMENT_FILE,
+        MessageIndex.LOG_FILE, Refs.PACKED_FILE, Repository.PACKS_DIR, Config.CONFIG_FILE};
+    private static final int CONFIG = STATE_FILES.length - 1;
+
+    /** stat data of STATE_FILES after the last request */
+    private static List<Object> fingerprint = null;
+
+    /**
+     * Serves requests until the process is stopped.
+     */
+    public static void run() {
+        if (isRunning()) {
+            throw Utils.error("A server is already running.");
+        }
+        // left behind by a server that was killed
+        SOCKET_FILE.delete();
+        // stopping the server, with Ctrl-C or kill, removes the socket
+        Runtime.getRuntime().addShutdownHook(new Thread(SOCKET_FILE::delete));
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()));
+            System.out.println("Serving " + Repository.CWD + ".");
+            while (true) {
+                try (SocketChannel client = server.accept()) {
+                    serve(client);
+                } catch (IOException e) {
+                    // the client went away; its command, if it ran, is complete
+                }
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error serving repository: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether a server is accepting requests for this repository.
+     */
+    public static boolean isRunning() {
+        if (!SOCKET_FILE.exists()) {
+            return false;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET_FILE.toPath()))) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            // an empty request, which is answered with nothing
+            out.writeInt(-1);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Runs one request. */
+    private static void serve(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(Channels.newInputStream(client));
+        int argc = in.readInt();
+        if (argc < 0) {
+            return;
+        }
+        String[] args = new String[argc];
+        for (int i = 0; i < argc; i++) {
+            args[i] = in.readUTF();
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)));
+        PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, STDOUT, null)),
+                false, StandardCharsets.UTF_8);
+        PrintStream stderr = new PrintStream(new FrameOutputStream(out, STDERR, stdout), true, StandardCharsets.UTF_8);
+        PrintStream systemOut = System.out;
+        PrintStream systemErr = System.err;
+        System.setOut(stdout);
+        System.setErr(stderr);
+        int status = 0;
+        try {
+            invalidateChangedState();
+            if (args.length > 0 && (args[0].equals("serve") || args[0].equals("watch")
+                    || args[0].equals("batch"))) {
+                Repository.errorMessage("Cannot run that command through the server.");
+            }
+            Main.run(args);
+        } catch (GitletException e) {
+            stderr.println(e.getMessage());
+            // the command stopped halfway; drop what it changed in memory but did not write
+            unloadState(false);
+        } catch (RuntimeException | Error e) {
+            e.printStackTrace(stderr);
+            unloadState(true);
+            status = 1;
+        } finally {
+            Durability.flush();
+            System.setOut(systemOut);
+            System.setErr(systemErr);
+            stdout.flush();
+            stderr.flush();
+            fingerprint = fingerprint();
+        }
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.flush();
+    }
+
+    /**
+     * Forgets the state kept from earlier requests that another process may have changed since.
+     * File hashes are keyed by stat data, which cannot tell a file rewritten within the same
+     * timestamp tick, so they never outlive a request.
+     */
+    private static void invalidateChangedState() {
+        Repository.head = "no";
+        Repository.firstParent = null;
+        Branches.currentBranch = "no";
+        HashService.clear();
+        List<Object> current = fingerprint();
+        if (fingerprint != null && !fingerprint.equals(current)) {
+            unloadState(!Objects.equals(fingerprint.get(CONFIG), current.get(CONFIG)));
+        }
+    }
+
+    /**
+     * Forgets the state read from the repository so it is read again on next use.
+     *
+     * @param objects Whether to drop cached objects as well.
+     */
+    private static void unloadState(boolean objects) {
+        Index.unload();
+        CommitGraph.unload();
+        MessageIndex.unload();
+        PackFile.unload();
+        Refs.unload();
+        Config.clear();
+        if (objects) {
+            ObjectCache.clear();
+        }
+    }
+
+    /** Returns the size, modification time and file key of every state file, or null for a missing one. */
+    private static List<Object> fingerprint() {
+        List<Object> result = new ArrayList<>();
+        for (File file : STATE_FILES) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                result.add(List.of(attributes.size(), attributes.lastModifiedTime(),
+                        Objects.toString(attributes.fileKey())));
+            } catch (NoSuchFileException e) {
+                result.add(null);
+            } catch (IOException e) {
+                // unknown, so never equal to the previous fingerprint
+                result.add(new Object());
+            }
+        }
+        return result;
+    }
+
+    /** Writes everything written to it as frames of one stream. */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte stream;
+        /** flushed first, so output keeps its order across streams */
+        private final PrintStream before;
+
+        FrameOutputStream(DataOutputStream out, byte stream, PrintStream before) {
+            this.out = out;
+            this.stream = stream;
+            this.before = before;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            if (before != null) {
+                before.flush();
+            }
+            out.writeByte(stream);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -1,28 +1,32 @@
 package gitlet;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 /**
  * Represents a gitlet StagingArea object.
- *  does at a high level.
+ * What is staged is the difference between the {@link Index} and the head commit: a file is staged
+ * for addition when the index has a blob for it that the head commit does not, and staged for
+ * removal when the head commit tracks it and the index does not.
  *
  * @author Abdelrahman Mostafa
  */
 public class StagingArea {
 
-    // Directory for staging files
-    public static final File STAGING_FOR_ADDING = Repository.StagingForAdding;
-    public static final File STAGING_FOR_REMOVING = Repository.StagingForRemoving;
-
     /**
      * Stages a file for addition. If the file already exists in the staging area, it is overwritten.
+     * Its blob is written to the object store right away, so commit has nothing left to copy.
      *
      * @param file     The file to be staged.
      * @param fileName The name of the file.
      */
     public static void stageForAdd(File file, String fileName) {
-        File stagedFile = new File(STAGING_FOR_ADDING, fileName);
-        Utils.writeContents(stagedFile, Utils.readContentsAsString(file));
+        // stat before hashing: a change made while hashing then shows up as a different mtime
+        Index.Entry stat = Index.stat(file, null);
+        String blob = Blob.saveBlobs(new File[]{file}).get(file);
+        Index.put(fileName, stat.withBlob(blob));
+        Index.write();
     }
 
     /**
@@ -32,8 +36,8 @@ public class StagingArea {
      * @param fileContent The content of the file.
      */
     public static void stageForRemove(String fileName, String fileContent) {
-        File stagedFile = new File(STAGING_FOR_REMOVING, fileName);
-        Utils.writeContents(stagedFile, fileContent);
+        Index.remove(fileName);
+        Index.write();
     }
 
     /**
@@ -42,7 +46,15 @@ public class StagingArea {
      * @param fileName The name of the file to be removed.
      */
     public static void unstageFromAdd(String fileName) {
-        removeFile(new File(STAGING_FOR_ADDING, fileName));
+        if (isStagedForAdding(fileName)) {
+            String blob = getHeadFiles().get(fileName);
+            if (blob == null) {
+                Index.remove(fileName);
+            } else {
+                Index.put(fileName, Index.Entry.unknown(blob));
+            }
+            Index.write();
+        }
     }
 
     /**
@@ -51,47 +63,51 @@ public class StagingArea {
      * @param fileName The name of the file to be removed.
      */
     public static void unstageFromRemove(String fileName) {
-        removeFile(new File(STAGING_FOR_REMOVING, fileName));
-    }
-
-    /**
-     * Helper method to remove a file if it exists.
-     *
-     * @param file The file to be removed.
-     */
-    private static void removeFile(File file) {
-        if (file.exists()) {
-            file.delete();
+        String blob = getHeadFiles().get(fileName);
+        if (blob != null && Index.get(fileName) == null) {
+            Index.put(fileName, Index.Entry.unknown(blob));
+            Index.write();
         }
     }
 
     /**
-     * Returns an array of files staged for addition.
+     * Returns the names of the files staged for addition.
      *
-     * @return An array of files staged for addition, or an empty array if none exist.
+     * @return The names of the files staged for addition, sorted.
      */
     public static List<String> getStagedForAdding() {
-        List<String> list= Utils.plainFilenamesIn(STAGING_FOR_ADDING);
-            return list;
+        Map<String, String> head = getHeadFiles();
+        List<String> list = new ArrayList<>();
+        for (Map.Entry<String, Index.Entry> entry : Index.entries().entrySet()) {
+            if (!entry.getValue().blob.equals(head.get(entry.getKey()))) {
+                list.add(entry.getKey());
+            }
+        }
+        return list;
     }
+
     public static boolean isAddingStageEmpty() {
-        return STAGING_FOR_ADDING.listFiles().length == 0;
-    }
-    public static File[] getFilesStagedForAddingFiles() {
-       return STAGING_FOR_ADDING.listFiles();
+        return getStagedForAdding().isEmpty();
     }
 
     /**
-     * Returns an array of files staged for removal.
+     * Returns the names of the files staged for removal.
      *
-     * @return An array of files staged for removal, or an empty array if none exist.
+     * @return The names of the files staged for removal, sorted.
      */
     public static List<String> getStagedToBeRemoved() {
-        List<String> list= Utils.plainFilenamesIn(STAGING_FOR_REMOVING);
+        Map<String, Index.Entry> index = Index.entries();
+        List<String> list = new ArrayList<>();
+        for (String fileName : getHeadFiles().keySet()) {
+            if (!index.containsKey(fileName)) {
+                list.add(fileName);
+            }
+        }
         return list;
     }
+
     public static boolean isRemovalStageEmpty() {
-        return STAGING_FOR_REMOVING.listFiles().length == 0;
+        return getStagedToBeRemoved().isEmpty();
     }
 
     /**
@@ -101,30 +117,22 @@ public class StagingArea {
      * @return True if the file is staged for addition, false otherwise.
      */
     public static boolean isStagedForAdding(String fileName) {
-        return new File(STAGING_FOR_ADDING, fileName).exists();
+        Index.Entry entry = Index.get(fileName);
+        return entry != null && !entry.blob.equals(getHeadFiles().get(fileName));
     }
 
     /**
-     * Clears the staging area by deleting all files staged for addition and removal.
+     * Clears the staging area, making the index match the head commit again.
      */
     public static void clear() {
-        clearDirectory(STAGING_FOR_ADDING);
-        clearDirectory(STAGING_FOR_REMOVING);
+        Index.reset(getHeadFiles());
+        Index.write();
     }
 
     /**
-     * Helper method to clear all files in a directory.
-     *
-     * @param directory The directory to clear.
+     * Returns the files of the head commit.
      */
-    private static void clearDirectory(File directory) {
-        if (directory.exists()) {
-            File[] files = directory.listFiles();
-            if (files != null) {
-                for (File file : files) {
-                    file.delete();
-                }
-            }
-        }
+    private static Map<String, String> getHeadFiles() {
+        return Repository.getTrackedFilesByCommit(Repository.getHead());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Represents the three-way merge of a file changed on both sides of a merge.
+ * The split-point, current and given versions are each read once as line hashes ({@link LineDiff}),
+ * and the current and given versions are diffed against the split point. Changes that touch
+ * different lines of the split point are both taken; changes that overlap or touch are taken once
+ * if both sides made the same change, and are otherwise a conflict written as
+ * <pre>
+ *     &lt;&lt;&lt;&lt;&lt;&lt;&lt; HEAD
+ *     [current lines]
+ *     =======
+ *     [given lines]
+ *     &gt;&gt;&gt;&gt;&gt;&gt;&gt;
+ * </pre>
+ * The result is then streamed into the working file from the current and given blobs, which are
+ * read a second time in order, so no version is ever held in memory as text. A marker always
+ * starts a line of its own, even after a last line without a newline.
+ * <p>
+ * A file deleted on one side, added on both, or holding binary data is merged as a whole: the
+ * conflict holds the full current and given contents.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class TextMerge {
+
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Merges the versions of a file into a working file.
+     *
+     * @param split   The blob at the split point, or null if the file did not exist there.
+     * @param current The blob in the current commit, or null if the file was deleted there.
+     * @param given   The blob in the given commit, or null if the file was deleted there.
+     * @param dest    The working file to write.
+     * @return True if the merge has a conflict.
+     */
+    public static boolean merge(String split, String current, String given, File dest) {
+        if (split == null || current == null || given == null) {
+            writeWholeConflict(current, given, dest);
+            return true;
+        }
+        LineDiff.Lines base = LineDiff.read(Blob.open(split));
+        LineDiff.Lines ours = LineDiff.read(Blob.open(current));
+        LineDiff.Lines theirs = LineDiff.read(Blob.open(given));
+        if (base.binary || ours.binary || theirs.binary) {
+            writeWholeConflict(current, given, dest);
+            return true;
+        }
+        List<LineDiff.Hunk> ourHunks = LineDiff.diff(base, ours);
+        List<LineDiff.Hunk> theirHunks = LineDiff.diff(base, theirs);
+        boolean conflict = false;
+        try (LineReader ourLines = new LineReader(Blob.open(current));
+             LineReader theirLines = new LineReader(Blob.open(given));
+             MergeOutput out = new MergeOutput(new FileOutputStream(dest))) {
+            int i = 0;
+            int j = 0;
+            // how far lines of each side are shifted from the split point by the hunks so far
+            int ourShift = 0;
+            int theirShift = 0;
+            while (i < ourHunks.size() || j < theirHunks.size()) {
+                // a group of hunks covering lines [from, to) of the split point, which no hunk
+                // outside it overlaps or touches
+                boolean oursFirst = j == theirHunks.size()
+                        || (i < ourHunks.size() && ourHunks.get(i).aFrom <= theirHunks.get(j).aFrom);
+                int from = (oursFirst ? ourHunks.get(i) : theirHunks.get(j)).aFrom;
+                int to = from;
+                int firstOurs = i;
+                int firstTheirs = j;
+                while (true) {
+                    if (i < ourHunks.size() && ourHunks.get(i).aFrom <= to) {
+                        to = Math.max(to, ourHunks.get(i++).aTo);
+                    } else if (j < theirHunks.size() && theirHunks.get(j).aFrom <= to) {
+                        to = Math.max(to, theirHunks.get(j++).aTo);
+                    } else {
+                        break;
+                    }
+                }
+                // the lines of each side that stand for [from, to)
+                int ourFrom = from + ourShift;
+                int theirFrom = from + theirShift;
+                for (LineDiff.Hunk hunk : ourHunks.subList(firstOurs, i)) {
+                    ourShift += (hunk.bTo - hunk.bFrom) - (hunk.aTo - hunk.aFrom);
+                }
+                for (LineDiff.Hunk hunk : theirHunks.subList(firstTheirs, j)) {
+                    theirShift += (hunk.bTo - hunk.bFrom) - (hunk.aTo - hunk.aFrom);
+                }
+                int ourTo = to + ourShift;
+                int theirTo = to + theirShift;
+                // lines before the group are the same on every side
+                ourLines.copyTo(ourFrom, out);
+                theirLines.skipTo(theirFrom);
+                if (j == firstTheirs) {
+                    // changed on the current side only
+                    ourLines.copyTo(ourTo, out);
+                    theirLines.skipTo(theirTo);
+                } else if (i == firstOurs || ours.sameLines(ourFrom, ourTo, theirs, theirFrom, theirTo)) {
+                    // changed on the given side only, or the same way on both
+                    ourLines.skipTo(ourTo);
+                    theirLines.copyTo(theirTo, out);
+                } else {
+                    conflict = true;
+                    out.marker(OURS_MARKER);
+                    ourLines.copyTo(ourTo, out);
+                    out.marker(SEPARATOR);
+                    theirLines.copyTo(theirTo, out);
+                    out.marker(THEIRS_MARKER);
+                }
+            }
+            ourLines.copyTo(Integer.MAX_VALUE, out);
+        } catch (IOException e) {
+            throw Utils.error("Error writing %s: %s", dest.getName(), e.getMessage());
+        }
+        return conflict;
+    }
+
+    /** Writes a conflict holding the whole current and given versions, either of which may be absent. */
+    private static void writeWholeConflict(String current, String given, File dest) {
+        try (MergeOutput out = new MergeOutput(new FileOutputStream(dest))) {
+            out.marker(OURS_MARKER);
+            if (current != null) {
+                try (InputStream in = Blob.open(current)) {
+                    in.transferTo(out);
+                }
+            }
+            out.marker(SEPARATOR);
+            if (given != null) {
+                try (InputStream in = Blob.open(given)) {
+                    in.transferTo(out);
+                }
+            }
+            out.marker(THEIRS_MARKER);
+        } catch (IOException e) {
+            throw Utils.error("Error writing %s: %s", dest.getName(), e.getMessage());
+        }
+    }
+
+    /** The merged file, which remembers whether what was written so far ends a line. */
+    private static class MergeOutput extends BufferedOutputStream {
+        private int last = '\n';
+
+        MergeOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            super.write(b);
+            last = b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            if (len > 0) {
+                last = b[off + len - 1];
+            }
+        }
+
+        /** Writes a conflict marker at the start of a line, ending a last line that has no newline. */
+        void marker(byte[] marker) throws IOException {
+            if (last != '\n') {
+                write('\n');
+            }
+            write(marker);
+        }
+    }
+
+    /** Reads a file line by line, copying or skipping lines up to a given line number. */
+    private static class LineReader implements AutoCloseable {
+        private final InputStream in;
+        private int line = 0;
+
+        LineReader(InputStream in) {
+            this.in = new BufferedInputStream(in);
+        }
+
+        /** Copies the lines up to line TO, or to the end of the file. */
+        void copyTo(int to, OutputStream out) throws IOException {
+            advance(to, out);
+        }
+
+        /** Skips the lines up to line TO. */
+        void skipTo(int to) throws IOException {
+            advance(to, null);
+        }
+
+        private void advance(int to, OutputStream out) throws IOException {
+            while (line < to) {
+                int b = in.read();
+                if (b == -1) {
+                    return;
+                }
+                if (out != null) {
+                    out.write(b);
+                }
+                if (b == '\n') {
+                    line++;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
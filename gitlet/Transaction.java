@@ -0,0 +1,126 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a transaction over the {@link Refs} and the {@link Index}. Outside a transaction a ref
+ * is written as soon as it changes; inside one, ref changes are kept in memory, reads see them, and
+ * the index is not written until {@link #commit()}, so a batch of commands either updates refs and
+ * index together or, after {@link #rollback()}, not at all. At commit every changed ref is checked
+ * against the value it had when the transaction first changed it, as a single update would be, and
+ * the refs and the index are renamed into place together through the {@link Journal}.
+ * <p>
+ * Objects, and the working files commands write, are not part of the transaction.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Transaction {
+
+    private static boolean active = false;
+    /** ref file -> {contents before the transaction, new contents}, null meaning absent */
+    private static final Map<File, String[]> pending = new LinkedHashMap<>();
+
+    /**
+     * Starts buffering ref and index writes.
+     */
+    public static void begin() {
+        active = true;
+        pending.clear();
+    }
+
+    /**
+     * Checks whether ref and index writes are being buffered.
+     */
+    public static boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Writes the buffered refs and the index; the transaction goes on.
+     */
+    public static void commit() {
+        active = false;
+        File indexLock = null;
+        try {
+            if (Index.isDirty()) {
+                indexLock = Index.writeLock();
+            }
+            if (!pending.isEmpty() || indexLock != null) {
+                Refs.update(pending, indexLock == null ? Collections.emptyMap()
+                        : Collections.singletonMap(indexLock, Index.INDEX_FILE));
+                pending.clear();
+            }
+            if (indexLock != null) {
+                Index.installed();
+            }
+        } finally {
+            if (indexLock != null && !Journal.isPending()) {
+                indexLock.delete();
+            }
+            active = true;
+        }
+    }
+
+    /**
+     * Forgets the buffered refs and index changes; the transaction goes on from what is on disk.
+     */
+    public static void rollback() {
+        pending.clear();
+        Index.unload();
+        Repository.head = "no";
+        Branches.currentBranch = "no";
+    }
+
+    /**
+     * Stops buffering; anything not committed is lost.
+     */
+    public static void end() {
+        rollback();
+        active = false;
+    }
+
+    /**
+     * Changes a ref file, now or at commit.
+     *
+     * @param file     The ref file.
+     * @param expected Its contents as last read, or null if it must not exist.
+     * @param contents Its new contents, or null to delete it.
+     */
+    static void write(File file, String expected, String contents) {
+        if (!active) {
+            Map<File, String[]> update = new LinkedHashMap<>();
+            update.put(file, new String[]{expected, contents});
+            Refs.update(update, Collections.emptyMap());
+        } else if (pending.containsKey(file)) {
+            pending.get(file)[1] = contents;
+        } else {
+            pending.put(file, new String[]{expected, contents});
+        }
+    }
+
+    /**
+     * Checks whether the transaction changed a ref file.
+     */
+    static boolean isPending(File file) {
+        return pending.containsKey(file);
+    }
+
+    /**
+     * Returns the contents the transaction gave a ref file, or null if it deleted it.
+     */
+    static String pendingContents(File file) {
+        return pending.get(file)[1];
+    }
+
+    /**
+     * Returns the ref files the transaction changed.
+     */
+    static List<File> pendingFiles() {
+        return Collections.unmodifiableList(new ArrayList<>(pending.keySet()));
+    }
+}
@@ -0,0 +1,245 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Represents a gitlet tree object: the contents of one directory of a commit.
+ * Each entry maps a name to a blob (a file) or to another tree (a subdirectory), by id, so a commit
+ * only has to write the trees of directories that changed and two commits can be compared by
+ * skipping every subtree whose id is the same on both sides.
+ * <p>
+ * A tree is stored as its entries in name order:
+ * <pre>
+ *     { byte type, int nameLength, byte[nameLength] name (UTF-8), byte[20] id }*
+ * </pre>
+ * and its id is the SHA-1 of that encoding. Paths of nested files use '/' as separator.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Tree {
+
+    // Directory for storing trees
+    public static final File TREE_DIRECTORY = Repository.TREES_DIR;
+
+    private static final byte BLOB = 1;
+    private static final byte TREE = 2;
+    private static final int ID_BYTES = Utils.UID_LENGTH / 2;
+
+    /** name -> entry, in name order */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * Writes the trees for a complete map of files.
+     *
+     * @param files Map from path to blob name.
+     * @return The id of the root tree.
+     */
+    public static String fromMap(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /**
+     * Writes the trees of a new snapshot that differs from an existing one by CHANGES.
+     * Only the trees of directories that contain a change are re-encoded and written;
+     * every other subtree is shared with the old snapshot by id.
+     *
+     * @param rootId  The id of the old root tree, or null for an empty snapshot.
+     * @param changes Map from path to new blob name, or to null for a removed file.
+     * @return The id of the new root tree.
+     */
+    public static String update(String rootId, Map<String, String> changes) {
+        return build(rootId, changes).save();
+    }
+
+    /** Applies CHANGES to the tree ROOTID, saving changed subtrees, and returns the unsaved result. */
+    private static Tree build(String rootId, Map<String, String> changes) {
+        // trees read are shared through the object cache, so changes go to a copy
+        Tree tree = new Tree();
+        if (rootId != null) {
+            tree.entries.putAll(read(rootId).entries);
+        }
+        Map<String, Map<String, String>> bySubdirectory = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    tree.entries.remove(path);
+                } else {
+                    tree.entries.put(path, new Entry(BLOB, change.getValue()));
+                }
+            } else {
+                bySubdirectory.computeIfAbsent(path.substring(0, slash), k -> new TreeMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> subdirectory : bySubdirectory.entrySet()) {
+            Entry old = tree.entries.get(subdirectory.getKey());
+            String oldId = old != null && old.type == TREE ? old.id : null;
+            Tree subtree = build(oldId, subdirectory.getValue());
+            if (subtree.entries.isEmpty()) {
+                tree.entries.remove(subdirectory.getKey());
+            } else {
+                tree.entries.put(subdirectory.getKey(), new Entry(TREE, subtree.save()));
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Lists every file below a tree.
+     *
+     * @param id The id of the tree.
+     * @return Map from path to blob name, in path order.
+     */
+    public static Map<String, String> flatten(String id) {
+        Map<String, String> files = new TreeMap<>();
+        flatten(id, "", files);
+        return files;
+    }
+
+    private static void flatten(String id, String prefix, Map<String, String> files) {
+        for (Map.Entry<String, Entry> entry : read(id).entries.entrySet()) {
+            if (entry.getValue().type == TREE) {
+                flatten(entry.getValue().id, prefix + entry.getKey() + "/", files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue().id);
+            }
+        }
+    }
+
+    /**
+     * Compares two trees, descending only into subtrees whose ids differ.
+     *
+     * @param first  The id of the first tree, or null for an empty tree.
+     * @param second The id of the second tree, or null for an empty tree.
+     * @return Map from every path whose blob differs to its blob names in FIRST and SECOND
+     * (null where the file is absent).
+     */
+    public static Map<String, String[]> diff(String first, String second) {
+        Map<String, String[]> changes = new TreeMap<>();
+        diff(first, second, "", changes);
+        return changes;
+    }
+
+    private static void diff(String first, String second, String prefix, Map<String, String[]> changes) {
+        if (Objects.equals(first, second)) {
+            return;
+        }
+        Map<String, Entry> a = first == null ? Collections.emptyMap() : read(first).entries;
+        Map<String, Entry> b = second == null ? Collections.emptyMap() : read(second).entries;
+        Set<String> names = new TreeSet<>(a.keySet());
+        names.addAll(b.keySet());
+        for (String name : names) {
+            Entry x = a.get(name);
+            Entry y = b.get(name);
+            if (x != null && y != null && x.type == y.type && x.id.equals(y.id)) {
+                continue;
+            }
+            String path = prefix + name;
+            diff(x != null && x.type == TREE ? x.id : null,
+                    y != null && y.type == TREE ? y.id : null, path + "/", changes);
+            String blobX = x != null && x.type == BLOB ? x.id : null;
+            String blobY = y != null && y.type == BLOB ? y.id : null;
+            if (!Objects.equals(blobX, blobY)) {
+                changes.put(path, new String[]{blobX, blobY});
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the subtrees and blobs a tree refers to directly.
+     *
+     * @param id The id of the tree.
+     * @return Map from name to id; names of subtrees end with '/'.
+     */
+    public static Map<String, String> children(String id) {
+        Map<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> entry : read(id).entries.entrySet()) {
+            result.put(entry.getKey() + (entry.getValue().type == TREE ? "/" : ""), entry.getValue().id);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stored bytes of a tree, loose or packed.
+     *
+     * @param id The id of the tree.
+     * @return The encoding of the tree, or null if it does not exist.
+     */
+    public static byte[] readContents(String id) {
+        File f = ObjectStore.objectFile(TREE_DIRECTORY, id);
+        if (f.exists()) {
+            return ObjectStore.read(f);
+        }
+        return PackFile.read(id);
+    }
+
+    private static Tree read(String id) {
+        Tree cached = ObjectCache.get(ObjectStore.TREE, id);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] contents = readContents(id);
+        if (contents == null) {
+            throw Utils.error("Missing tree %s.", id);
+        }
+        Tree tree = new Tree();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents))) {
+            while (in.available() > 0) {
+                byte type = in.readByte();
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                byte[] entryId = new byte[ID_BYTES];
+                in.readFully(entryId);
+                tree.entries.put(new String(name, StandardCharsets.UTF_8), new Entry(type, Utils.toHex(entryId)));
+            }
+        } catch (IOException e) {
+            throw Utils.error("Corrupt tree %s.", id);
+        }
+        // about twice the encoding for the strings, plus the map entries
+        ObjectCache.put(ObjectStore.TREE, id, tree, 2L * contents.length + 96L * tree.entries.size());
+        return tree;
+    }
+
+    /** Writes this tree unless a tree with the same id exists, and returns its id. */
+    private String save() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(entry.getValue().type);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(Utils.fromHex(entry.getValue().id));
+            }
+        } catch (IOException e) {
+            throw Utils.error("Internal error serializing tree.");
+        }
+        byte[] contents = bytes.toByteArray();
+        String id = Utils.sha1(contents);
+        File f = ObjectStore.objectFile(TREE_DIRECTORY, id);
+        if (!f.exists() && !PackFile.contains(id)) {
+            ObjectStore.write(f, ObjectStore.TREE, contents);
+        }
+        return id;
+    }
+
+    /** A named blob or subtree. */
+    private static class Entry {
+        final byte type;
+        final String id;
+
+        Entry(byte type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Represents the file-system watcher: an optional long-running {@code gitlet watch} process that
+ * records which paths of the working tree change, so other commands only have to look at those.
+ * <p>
+ * The watcher appends the changed paths to a journal, .gitlet/watch-journal, as NUL-terminated
+ * '/'-separated paths; an empty path means events were lost. {@link #scan()} drains the journal
+ * and applies it to a snapshot of the working tree saved by the previous query,
+ * .gitlet/watch-snapshot, re-reading only the paths in the journal. The snapshot is a log of
+ * records: each query appends the paths whose stat data changed, and the file is only rewritten
+ * once it holds far more records than files. It falls back to a full scan when no watcher is
+ * running, when the journal reports lost events, and when there is no snapshot yet. The watcher holds a lock on .gitlet/watch.lock for as long as it runs, which is how other
+ * commands tell that the journal is complete.
+ * <p>
+ * Events reach the journal some time after the change, so a query first creates a cookie file,
+ * .gitlet/watch-cookie-PID-N, and waits until the watcher journals it. The watcher journals the
+ * events it received before a cookie together with or before it, so once the cookie is in the
+ * journal every change made before the query is too. A query that does not see its cookie in
+ * time falls back to a full scan.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class Watcher {
+
+    public static final File LOCK_FILE = Utils.join(Repository.GITLET_DIR, "watch.lock");
+    public static final File JOURNAL_FILE = Utils.join(Repository.GITLET_DIR, "watch-journal");
+    public static final File SNAPSHOT_FILE = Utils.join(Repository.GITLET_DIR, "watch-snapshot");
+
+    private static final int SNAPSHOT_MAGIC = 0x47575348;  // "GWSH"
+    private static final int SNAPSHOT_VERSION = 2;
+    /** snapshot record kinds: a file and its stat data, or a file that is gone */
+    private static final int PRESENT = 1;
+    private static final int REMOVED = 0;
+    /** records the snapshot may hold beyond twice its files before it is rewritten */
+    private static final int COMPACT_SLACK = 1024;
+    /** journals larger than this are not worth replaying; a full scan is cheaper */
+    private static final long MAX_JOURNAL = 4 * 1024 * 1024;
+    private static final String COOKIE_PREFIX = "watch-cookie-";
+    /** how long a query waits for the watcher to journal its cookie, in milliseconds */
+    private static final long COOKIE_TIMEOUT = 1000;
+
+    /** cookies created by this process so far, to name the next one */
+    private static int cookieCount = 0;
+
+    /** number of records in the snapshot file, as last read or written */
+    private static int snapshotRecords = 0;
+
+    /**
+     * Watches the working tree until the process is stopped, recording every changed path in the journal.
+     */
+    public static void run() {
+        try (FileChannel lockChannel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = lockChannel.tryLock();
+             WatchService service = FileSystems.getDefault().newWatchService()) {
+            if (lock == null) {
+                throw Utils.error("A watcher is already running.");
+            }
+            // nothing was recorded before the directories are registered
+            append(Collections.singletonList(""));
+            Map<WatchKey, Path> directories = new HashMap<>();
+            register(service, Repository.CWD.toPath(), directories, null);
+            // only for the cookies of queries
+            Path gitlet = Repository.GITLET_DIR.toPath();
+            directories.put(gitlet.register(service, StandardWatchEventKinds.ENTRY_CREATE), gitlet);
+            append(Collections.singletonList(""));
+            System.out.println("Watching " + Repository.CWD + ".");
+            while (true) {
+                List<String> changed = new ArrayList<>();
+                List<String> cookies = new ArrayList<>();
+                // a key reset with events pending is queued again, so polling until the queue is
+                // empty takes every event received before the last cookie
+                WatchKey key = service.take();
+                while (key != null) {
+                    readEvents(service, key, directories, changed, cookies);
+                    key = service.poll();
+                }
+                changed.addAll(cookies);
+                append(changed);
+            }
+        } catch (IOException e) {
+            throw Utils.error("Error watching working tree: %s", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Adds the changed paths and the cookies of a key's events, and resets the key. */
+    private static void readEvents(WatchService service, WatchKey key, Map<WatchKey, Path> directories,
+                                   List<String> changed, List<String> cookies) throws IOException {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                changed.add("");
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (path.startsWith(Repository.GITLET_DIR.toPath())) {
+                if (path.getFileName().toString().startsWith(COOKIE_PREFIX)) {
+                    cookies.add(relativePath(path));
+                }
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                register(service, path, directories, changed);
+            }
+            changed.add(relativePath(path));
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Lists every file of the working tree with its stat data, as {@link WorkingTree#scan()}, looking
+     * only at the paths the watcher saw change since the last call.
+     *
+     * @return Map from path to stat data in path order, or null if no watcher is running and the
+     * caller has to scan the whole working tree.
+     */
+    public static SortedMap<String, Index.Entry> scan() {
+        if (!isRunning()) {
+            return null;
+        }
+        boolean synced = sync();
+        Set<String> changed = drainJournal();
+        if (!synced) {
+            changed = null;
+        }
+        SortedMap<String, Index.Entry> files = changed == null || !SNAPSHOT_FILE.exists() ? null : readSnapshot();
+        if (files == null) {
+            files = WorkingTree.scan(Repository.CWD, "");
+            writeSnapshot(files);
+            return files;
+        }
+        // path -> its new stat data, or null if it is gone
+        SortedMap<String, Index.Entry> updates = new TreeMap<>();
+        for (String path : changed) {
+            // forget the path and, if it was a directory, everything below it, then look again
+            SortedMap<String, Index.Entry> below = files.subMap(path + "/", path + (char) ('/' + 1));
+            Map<String, Index.Entry> old = new HashMap<>(below);
+            below.clear();
+            Index.Entry oldEntry = files.remove(path);
+            if (oldEntry != null) {
+                old.put(path, oldEntry);
+            }
+            File file = new File(Repository.CWD, path);
+            Map<String, Index.Entry> fresh = new HashMap<>();
+            if (WorkingTree.isDirectory(file)) {
+                fresh.putAll(WorkingTree.scan(file, path + "/"));
+            } else if (file.isFile()) {
+                Index.Entry stat = Index.statOrNull(file, null);
+                if (stat != null) {
+                    fresh.put(path, stat);
+                }
+            }
+            files.putAll(fresh);
+            for (String gone : old.keySet()) {
+                if (!fresh.containsKey(gone)) {
+                    updates.put(gone, null);
+                }
+            }
+            for (Map.Entry<String, Index.Entry> entry : fresh.entrySet()) {
+                if (!sameStat(old.get(entry.getKey()), entry.getValue())) {
+                    updates.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (snapshotRecords + updates.size() > 2 * files.size() + COMPACT_SLACK) {
+            writeSnapshot(files);
+        } else if (!updates.isEmpty()) {
+            appendSnapshot(updates);
+        }
+        return files;
+    }
+
+    /**
+     * Checks whether a watcher holds the lock of this repository.
+     */
+    public static boolean isRunning() {
+        if (!LOCK_FILE.exists()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            return lock == null;
+        } catch (OverlappingFileLockException e) {
+            // this process is the watcher
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static void register(WatchService service, Path start, Map<WatchKey, Path> directories,
+                                 List<String> changed) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.equals(Repository.GITLET_DIR.toPath())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                directories.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                // files created in a new directory before it was registered
+                if (changed != null) {
+                    changed.add(relativePath(file));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static String relativePath(Path path) {
+        return Repository.CWD.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Waits until every change made before this call is in the journal: creates a cookie file the
+     * watcher journals after the events it received before it.
+     *
+     * @return True if the cookie was journaled in time.
+     */
+    private static boolean sync() {
+        File cookie = Utils.join(Repository.GITLET_DIR, COOKIE_PREFIX + ProcessHandle.current().pid() + "-" + cookieCount++);
+        byte[] entry = (Repository.GITLET_DIR.getName() + "/" + cookie.getName() + "\0").getBytes(StandardCharsets.UTF_8);
+        try {
+            if (!cookie.createNewFile()) {
+                return false;
+            }
+            long deadline = System.currentTimeMillis() + COOKIE_TIMEOUT;
+            long pause = 1;
+            while (!journalContains(entry)) {
+                if (System.currentTimeMillis() >= deadline) {
+                    return false;
+                }
+                Thread.sleep(pause);
+                pause = Math.min(pause * 2, 20);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            cookie.delete();
+        }
+    }
+
+    /** Checks whether the journal holds an entry, under its lock. */
+    private static boolean journalContains(byte[] entry) throws IOException {
+        if (!JOURNAL_FILE.exists()) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(JOURNAL_FILE, "rw")) {
+            // released when the file is closed
+            raf.getChannel().lock();
+            if (raf.length() > MAX_JOURNAL) {
+                // the query scans everything anyway
+                return true;
+            }
+            byte[] contents = new byte[(int) raf.length()];
+            raf.readFully(contents);
+            for (int i = 0; i + entry.length <= contents.length; i++) {
+                if ((i == 0 || contents[i - 1] == 0) && Arrays.equals(contents, i, i + entry.length, entry, 0, entry.length)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Appends paths to the journal, under its lock. */
+    private static void append(List<String> paths) throws IOException {
+        if (paths.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String path : paths) {
+            bytes.write(path.getBytes(StandardCharsets.UTF_8));
+            bytes.write(0);
+        }
+        try (FileChannel channel = FileChannel.open(JOURNAL_FILE.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            // released when the channel is closed
+            channel.lock();
+            channel.write(ByteBuffer.wrap(bytes.toByteArray()));
+        }
+    }
+
+    /**
+     * Reads and empties the journal, under its lock. Cookies are left out.
+     *
+     * @return The changed paths, or null if events were lost.
+     */
+    private static Set<String> drainJournal() {
+        if (!JOURNAL_FILE.exists()) {
+            return new TreeSet<>();
+        }
+        byte[] contents;
+        try (RandomAccessFile raf = new RandomAccessFile(JOURNAL_FILE, "rw")) {
+            // released when the file is closed
+            raf.getChannel().lock();
+            if (raf.length() > MAX_JOURNAL) {
+                raf.setLength(0);
+                return null;
+            }
+            contents = new byte[(int) raf.length()];
+            raf.readFully(contents);
+            raf.setLength(0);
+        } catch (IOException e) {
+            throw Utils.error("Error reading watch journal: %s", e.getMessage());
+        }
+        Set<String> paths = new TreeSet<>();
+        int start = 0;
+        for (int i = 0; i < contents.length; i++) {
+            if (contents[i] == 0) {
+                if (i == start) {
+                    return null;
+                }
+                String path = new String(contents, start, i - start, StandardCharsets.UTF_8);
+                if (!path.startsWith(Repository.GITLET_DIR.getName() + "/")) {
+                    paths.add(path);
+                }
+                start = i + 1;
+            }
+        }
+        return paths;
+    }
+
+    private static boolean sameStat(Index.Entry a, Index.Entry b) {
+        return a != null && a.mode == b.mode && a.size == b.size && a.mtime == b.mtime
+                && a.ctime == b.ctime && a.inode == b.inode;
+    }
+
+    /** Reads the snapshot, replaying its records in order; null if it is missing or cut short. */
+    private static SortedMap<String, Index.Entry> readSnapshot() {
+        SortedMap<String, Index.Entry> files = new TreeMap<>();
+        int records = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(SNAPSHOT_FILE)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                return null;
+            }
+            int kind;
+            while ((kind = in.read()) != -1) {
+                byte[] path = new byte[in.readInt()];
+                in.readFully(path);
+                String name = new String(path, StandardCharsets.UTF_8);
+                if (kind == PRESENT) {
+                    files.put(name, new Index.Entry(null, in.readInt(), in.readLong(), in.readLong(),
+                            in.readLong(), in.readLong()));
+                } else if (kind == REMOVED) {
+                    files.remove(name);
+                } else {
+                    return null;
+                }
+                records++;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        snapshotRecords = records;
+        return files;
+    }
+
+    /** Replaces the snapshot by one record per file. */
+    private static void writeSnapshot(SortedMap<String, Index.Entry> files) {
+        File tmp = new File(SNAPSHOT_FILE.getParentFile(), SNAPSHOT_FILE.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            writeRecords(out, files);
+        } catch (IOException e) {
+            tmp.delete();
+            throw Utils.error("Error writing watch snapshot: %s", e.getMessage());
+        }
+        if (!tmp.renameTo(SNAPSHOT_FILE)) {
+            tmp.delete();
+            throw Utils.error("Could not install watch snapshot.");
+        }
+        snapshotRecords = files.size();
+    }
+
+    /**
+     * Appends records for the changed paths to the snapshot. A record cut short by a crash makes
+     * the next {@link #readSnapshot()} fail, which falls back to a full scan.
+     */
+    private static void appendSnapshot(SortedMap<String, Index.Entry> updates) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(SNAPSHOT_FILE, true)))) {
+            writeRecords(out, updates);
+        } catch (IOException e) {
+            SNAPSHOT_FILE.delete();
+            throw Utils.error("Error writing watch snapshot: %s", e.getMessage());
+        }
+        snapshotRecords += updates.size();
+    }
+
+    private static void writeRecords(DataOutputStream out, SortedMap<String, Index.Entry> records) throws IOException {
+        for (Map.Entry<String, Index.Entry> record : records.entrySet()) {
+            byte[] path = record.getKey().getBytes(StandardCharsets.UTF_8);
+            Index.Entry stat = record.getValue();
+            out.write(stat == null ? REMOVED : PRESENT);
+            out.writeInt(path.length);
+            out.write(path);
+            if (stat != null) {
+                out.writeInt(stat.mode);
+                out.writeLong(stat.size);
+                out.writeLong(stat.mtime);
+                out.writeLong(stat.ctime);
+                out.writeLong(stat.inode);
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Represents the working tree: the files of the current directory and its subdirectories, except
+ * the .gitlet directory.
+ * Directories are listed and their files stat'ed in parallel, one fork/join task per directory,
+ * and the result is one map of (path, stat) entries in path order, which {@link #compare(Map)}
+ * merge-joins against the index and the head commit in a single pass. Symbolic links to
+ * directories are not followed, so a link cycle cannot make the scan recurse without end, and a
+ * file deleted while the scan runs is left out. While a {@link Watcher} is
+ * running, only the paths it saw change are looked at again.
+ *
+ * @author Abdelrahman Mostafa
+ */
+public class WorkingTree {
+
+    /**
+     * Lists every file of the working tree with its stat data.
+     *
+     * @return Map from path ('/'-separated, relative to the working directory) to the stat data
+     * of the file, with no blob; in path order.
+     */
+    public static SortedMap<String, Index.Entry> scan() {
+        SortedMap<String, Index.Entry> watched = Watcher.scan();
+        return watched != null ? watched : scan(Repository.CWD, "");
+    }
+
+    /**
+     * Lists every file below a directory of the working tree with its stat data.
+     *
+     * @param directory The directory.
+     * @param prefix    Its path followed by '/', or "" for the working directory itself.
+     * @return Map from path to stat data, in path order.
+     */
+    public static SortedMap<String, Index.Entry> scan(File directory, String prefix) {
+        List<Map.Entry<String, Index.Entry>> files = ForkJoinPool.commonPool().invoke(new ScanTask(directory, prefix));
+        SortedMap<String, Index.Entry> result = new TreeMap<>();
+        for (Map.Entry<String, Index.Entry> file : files) {
+            result.put(file.getKey(), file.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether a file is a directory of the working tree to descend into: a directory that is
+     * not reached through a symbolic link.
+     *
+     * @param file The file.
+     * @return True if the file is a directory itself.
+     */
+    public static boolean isDirectory(File file) {
+        return Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Puts every path of the head commit, the index and the working tree side by side.
+     *
+     * @param head The files of the head commit, from path to blob name.
+     * @return One row per path, in path order.
+     */
+    public static List<Row> compare(Map<String, String> head) {
+        SortedMap<String, Index.Entry> index = Index.entries();
+        SortedMap<String, Index.Entry> files = scan();
+        Iterator<Map.Entry<String, String>> h = new TreeMap<>(head).entrySet().iterator();
+        Iterator<Map.Entry<String, Index.Entry>> i = index.entrySet().iterator();
+        Iterator<Map.Entry<String, Index.Entry>> w = files.entrySet().iterator();
+        Map.Entry<String, String> nextHead = next(h);
+        Map.Entry<String, Index.Entry> nextIndex = next(i);
+        Map.Entry<String, Index.Entry> nextFile = next(w);
+        List<Row> rows = new ArrayList<>();
+        while (nextHead != null || nextIndex != null || nextFile != null) {
+            String path = min(min(key(nextHead), key(nextIndex)), key(nextFile));
+            Row row = new Row(path);
+            if (nextHead != null && nextHead.getKey().equals(path)) {
+                row.head = nextHead.getValue();
+                nextHead = next(h);
+            }
+            if (nextIndex != null && nextIndex.getKey().equals(path)) {
+                row.index = nextIndex.getValue();
+                nextIndex = next(i);
+            }
+            if (nextFile != null && nextFile.getKey().equals(path)) {
+                row.file = nextFile.getValue();
+                nextFile = next(w);
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static <V> Map.Entry<String, V> next(Iterator<Map.Entry<String, V>> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private static String key(Map.Entry<String, ?> entry) {
+        return entry == null ? null : entry.getKey();
+    }
+
+    private static String min(String a, String b) {
+        if (a == null) {
+            return b;
+        }
+        return b == null || a.compareTo(b) <= 0 ? a : b;
+    }
+
+    /** One path with its blob in the head commit, its index entry and its working file, each null if absent. */
+    public static class Row {
+        public final String path;
+        public String head;
+        public Index.Entry index;
+        public Index.Entry file;
+
+        Row(String path) {
+            this.path = path;
+        }
+
+        /** Returns whether the index has a different blob than the head commit. */
+        public boolean isStagedForAdding() {
+            return index != null && !index.blob.equals(head);
+        }
+
+        public boolean isStagedForRemoval() {
+            return head != null && index == null;
+        }
+
+        public boolean isUntracked() {
+            return file != null && index == null;
+        }
+    }
+
+    /** Lists one directory, forking a task for each subdirectory. */
+    private static class ScanTask extends RecursiveTask<List<Map.Entry<String, Index.Entry>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File directory;
+        private final String prefix;
+
+        ScanTask(File directory, String prefix) {
+            this.directory = directory;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<Map.Entry<String, Index.Entry>> compute() {
+            List<Map.Entry<String, Index.Entry>> result = new ArrayList<>();
+            File[] children = directory.listFiles();
+            if (children == null) {
+                return result;
+            }
+            List<ScanTask> subdirectories = new ArrayList<>();
+            for (File child : children) {
+                if (isDirectory(child)) {
+                    if (!child.equals(Repository.GITLET_DIR)) {
+                        ScanTask task = new ScanTask(child, prefix + child.getName() + "/");
+                        task.fork();
+                        subdirectories.add(task);
+                    }
+                } else if (child.isFile()) {
+                    Index.Entry stat = Index.statOrNull(child, null);
+                    if (stat != null) {
+                        result.add(new AbstractMap.SimpleImmutableEntry<>(prefix + child.getName(), stat));
+                    }
+                }
+            }
+            for (ScanTask task : subdirectories) {
+                result.addAll(task.join());
+            }
+            return result;
+        }
+    }
+}